@@ -1,6 +1,7 @@
 package core.utils;
 
 import core.math.Matrix4f;
+import core.math.Vec3f;
 import core.math.Vec3i;
 import core.model.Vertex;
 import dc.entities.DebugDrawBuffer;
@@ -162,6 +163,19 @@ public class BufferUtil {
 		return buffer;
 	}
 
+	public static FloatBuffer createDcFlippedBufferSOA(float[] positions, float[] normals, Vec3f color, int numVertices) {
+		FloatBuffer buffer = createFloatBuffer(numVertices * 9);
+		for (int i = 0; i < numVertices * 3; i += 3) {
+			buffer.put(positions, i, 3);
+			buffer.put(normals, i, 3);
+			buffer.put(color.getX());
+			buffer.put(color.getY());
+			buffer.put(color.getZ());
+		}
+		buffer.flip();
+		return buffer;
+	}
+
 	public static FloatBuffer createDebugFlippedBufferAOS(DebugDrawBuffer buf) {
 		FloatBuffer buffer = createFloatBuffer(buf.getVertexBuffer().length * 8);
 		for (int i=0; i<buf.getVertexBuffer().length; i++) {
@@ -81,39 +81,6 @@ public static int loadImage(String file) {
         //return stbi_write_png(fileName, width, height, comp, floatArray2ByteArray(data), width*3);
     }
 
-    public static void loadImageToFloatArray(float[] data, String fileName){
-        try{
-            RandomAccessFile rFile = new RandomAccessFile(fileName, "r");
-            FileChannel inChannel = rFile.getChannel();
-            ByteBuffer buf_in = ByteBuffer.allocate(4*data.length);
-            buf_in.clear();
-            inChannel.read(buf_in);
-            buf_in.rewind();
-            buf_in.asFloatBuffer().get(data);
-            inChannel.close();
-        } catch (IOException ex) {
-            System.err.println(ex.getMessage());
-        }
-    }
-
-    public static void saveImageToFloat(float[] data, String fileName) {
-        DataOutputStream out = null;
-        try {
-            out = new DataOutputStream(new FileOutputStream(fileName));
-            byte[] buf = new byte[4 * data.length];
-            for (int i = 0; i < data.length; ++i) {
-                int val = Float.floatToRawIntBits(data[i]);
-                buf[4 * i] = (byte) (val >> 24);
-                buf[4 * i + 1] = (byte) (val >> 16);
-                buf[4 * i + 2] = (byte) (val >> 8);
-                buf[4 * i + 3] = (byte) (val);
-            }
-            out.write(buf);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-	
 	public static ByteBuffer loadImageToByteBuffer(String file){
 		ByteBuffer imageBuffer;
         try {
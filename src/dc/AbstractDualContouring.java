@@ -3,22 +3,19 @@ package dc;
 import core.math.Vec3f;
 import core.math.Vec3i;
 import core.math.Vec4f;
-import core.utils.BufferUtil;
 import core.utils.Constants;
 import dc.csg.ICSGOperations;
+import dc.entities.BorderNodes;
 import dc.entities.CSGOperationInfo;
 import dc.entities.MeshBuffer;
-import dc.entities.MeshVertex;
 import dc.impl.MeshGenerationContext;
 import dc.utils.VoxelHelperUtils;
 
 import java.util.*;
 
-import static dc.OctreeNodeType.Node_Internal;
-import static dc.OctreeNodeType.Node_Leaf;
 import static dc.VoxelOctree.CHILD_MIN_OFFSETS;
-import static dc.VoxelOctree.edgevmap;
 import static dc.utils.SimplexNoise.getNoise;
+import static dc.utils.SimplexNoise.getTerrainHeight;
 
 public abstract class AbstractDualContouring implements DualContouring{
     protected MeshGenerationContext meshGen;
@@ -33,320 +30,32 @@ public abstract class AbstractDualContouring implements DualContouring{
         this.csgOperationsProcessor = csgOperations;
     }
 
-    private List<OctreeNode> constructParents(List<OctreeNode> nodes, Vec3i rootMin, int parentSize) {
-        Map<Vec3i, OctreeNode> parentsHash = new HashMap<>();
-        for (OctreeNode node : nodes) {
-            Vec3i localPos = node.min.sub(rootMin);
-            Vec3i parentPos = node.min.sub(new Vec3i(localPos.x % parentSize, localPos.y % parentSize, localPos.z % parentSize));
-            OctreeNode parent = parentsHash.get(parentPos);
-            if (parent == null) {
-                parent = createParent(parentPos, parentSize, OctreeNodeType.Node_Internal);
-                parentsHash.put(parentPos, parent);
-            }
-            for (int j = 0; j < 8; j++) {
-                Vec3i childMin = parentPos.add(CHILD_MIN_OFFSETS[j].mul(parentSize / 2));
-                if (childMin.equals(node.min)) {
-                    parent.children[j] = node;
-                    node.child_index = j;
-                    break;
-                }
-            }
-        }
-        return new ArrayList<>(parentsHash.values());
-    }
-
-    protected OctreeNode createParent(Vec3i min, int size, OctreeNodeType type){
-        return new PointerBasedOctreeNode(min, size, OctreeNodeType.Node_Internal);
-    }
-
-    protected OctreeNode constructTreeUpwards(List<OctreeNode> inputNodes, Vec3i rootMin, int rootNodeSize) {
-        List<OctreeNode> sortedNodes = new ArrayList<>(inputNodes);
-        sortedNodes.sort(Comparator.comparingInt((OctreeNode lhs) -> lhs.size));
-        while (sortedNodes.get(0).size != sortedNodes.get(sortedNodes.size() - 1).size) {
-            int iter = 0;
-            int size = sortedNodes.get(iter).size;
-            do {
-                ++iter;
-            } while (sortedNodes.get(iter).size == size);
-
-            List<OctreeNode> newNodes = constructParents(sortedNodes.subList(0, iter), rootMin, size * 2);
-            newNodes.addAll(sortedNodes.subList(iter, sortedNodes.size()));
-            sortedNodes.clear();
-            sortedNodes.addAll(newNodes);
-            newNodes.clear();
-        }
-
-        int parentSize = (sortedNodes.get(0).size) * 2;
-        while (parentSize <= rootNodeSize*2) {
-            sortedNodes = constructParents(sortedNodes, rootMin, parentSize);
-            parentSize *= 2;
-        }
-        if (sortedNodes.size()!=1){
-            throw new IllegalStateException("Incorrect octree!");
-        }
-        if (!(rootMin.x==sortedNodes.get(0).min.x) || !(rootMin.y==sortedNodes.get(0).min.y)|| !(rootMin.z==sortedNodes.get(0).min.z)){
-            throw new IllegalStateException("returned root not equal to input root!");
-        }
-        return sortedNodes.get(0);
-    }
-
-    private void ContourProcessEdge(OctreeNode[] node, int dir, List<Integer> indexBuffer)
-    {
-        int minSize = 1000000;		// arbitrary big number
-        int minIndex = 0;
-        int[] indices = { -1, -1, -1, -1 };
-        boolean flip = false;
-        boolean[] signChange = { false, false, false, false };
-
-        for (int i = 0; i < 4; i++)
-        {
-            if (node[i].Type != Node_Internal)
-            {
-                int edge = processEdgeMask[dir][i];
-                int c0 = edgevmap[edge][0];
-                int c1 = edgevmap[edge][1];
-                int m0 = (node[i].corners >> c0) & 1;
-                int m1 = (node[i].corners >> c1) & 1;
-
-                if (node[i].size < minSize)
-                {
-                    minSize = node[i].size;
-                    minIndex = i;
-                    flip = m1 != 1;
-                }
-
-                indices[i] = node[i].index;
-                //signChange[i] = (m0 && !m1) || (!m0 && m1);
-                signChange[i] =
-                        (m0 == meshGen.MATERIAL_AIR && m1 != meshGen.MATERIAL_AIR) ||
-                                (m0 != meshGen.MATERIAL_AIR && m1 == meshGen.MATERIAL_AIR);
-            }
-        }
-
-        if (!signChange[minIndex]) {
-            return;
-        }
-
-        if (!flip) {
-            indexBuffer.add(indices[0]);
-            indexBuffer.add(indices[1]);
-            indexBuffer.add(indices[3]);
-
-            indexBuffer.add(indices[0]);
-            indexBuffer.add(indices[3]);
-            indexBuffer.add(indices[2]);
-        }
-        else {
-            indexBuffer.add(indices[0]);
-            indexBuffer.add(indices[3]);
-            indexBuffer.add(indices[1]);
-
-            indexBuffer.add(indices[0]);
-            indexBuffer.add(indices[2]);
-            indexBuffer.add(indices[3]);
-        }
-    }
-
-    private Vec3i chunkMinForPosition(Vec3i min, int size) {
-        // http://ngildea.blogspot.com/2015/07/fixing-seams-bug.html
-        int mask = ~(size - 1);
-        return new Vec3i(min.x & mask, min.y & mask, min.z & mask);
-    }
-
-    private void ContourEdgeProc(OctreeNode[] node, int dir, List<Integer> buffer, boolean isSeam, int chunkSize) {
-        if (node[0] == null || node[1] == null || node[2] == null || node[3] == null) {
-            return;
-        }
-
-        // bit of a hack but it works: prevent overlapping seams by only processing edges that stradle multiple chunks
-        if(isSeam) {
-            Set<Vec3i> chunks = new HashSet<>();
-            for (int i = 0; i < 4; i++) {
-                chunks.add(chunkMinForPosition(node[i].min, chunkSize));
-            }
-            if (chunks.size() == 1)
-                return;
-        }
-
-        boolean[] isBranch = {
-                node[0].Type == Node_Internal,
-                node[1].Type == Node_Internal,
-                node[2].Type == Node_Internal,
-                node[3].Type == Node_Internal,
-        };
-
-        if (!isBranch[0] && !isBranch[1] && !isBranch[2] && !isBranch[3]) {
-            // To avoid overlap seam mesh with chunk mesh. If all 4 nodes of seam belong to only one chunk, then this is not a seam.
-            if(isSeam &&
-                    (node[0].getChunk().equals(node[1].getChunk()) &&
-                    node[1].getChunk().equals(node[2].getChunk()) &&
-                    node[2].getChunk().equals(node[3].getChunk()))
-            ){
-                return;
-            }
-            ContourProcessEdge(node, dir, buffer);
-        }
-        else {
-            for (int i = 0; i < 2; i++) {
-                OctreeNode[] edgeNodes = new PointerBasedOctreeNode[4];
-                int[] c = {
-                        edgeProcEdgeMask[dir][i][0],
-                        edgeProcEdgeMask[dir][i][1],
-                        edgeProcEdgeMask[dir][i][2],
-                        edgeProcEdgeMask[dir][i][3],
-                };
-
-                for (int j = 0; j < 4; j++) {
-                    if (!isBranch[j]) {
-                        edgeNodes[j] = node[j];
-                    }
-                    else {
-                        edgeNodes[j] = node[j].children[c[j]];
-                    }
-                }
-
-                ContourEdgeProc(edgeNodes, edgeProcEdgeMask[dir][i][4], buffer, isSeam, chunkSize);
-            }
-        }
-    }
-
-    private void ContourFaceProc(OctreeNode[] node, int dir, List<Integer> buffer, boolean isSeam, int chunkSize) {
-        if (node[0] == null || node[1] == null) {
-            return;
-        }
-
-        // bit of a hack but it works: prevent overlapping seams by only processing edges that straddle multiple chunks
-        if (isSeam && chunkMinForPosition(node[0].min, chunkSize).equals(chunkMinForPosition(node[1].min, chunkSize))) {
-            return;
-        }
-
-        boolean[] isBranch = {
-                node[0].Type == Node_Internal,
-                node[1].Type == Node_Internal,
-        };
-
-        if (isBranch[0] || isBranch[1]) {
-            for (int i = 0; i < 4; i++) {
-                OctreeNode[] faceNodes = new PointerBasedOctreeNode[2];
-                int[] c = {
-                        faceProcFaceMask[dir][i][0], faceProcFaceMask[dir][i][1],
-                };
-
-                for (int j = 0; j < 2; j++) {
-                    if (!isBranch[j]) {
-                        faceNodes[j] = node[j];
-                    }
-                    else {
-                        faceNodes[j] = node[j].children[c[j]];
-                    }
-                }
-                ContourFaceProc(faceNodes, faceProcFaceMask[dir][i][2], buffer, isSeam, chunkSize);
-            }
-
-            int[][] orders = {
-                    { 0, 0, 1, 1 },
-                    { 0, 1, 0, 1 },
-            };
-
-            for (int i = 0; i < 4; i++) {
-                OctreeNode[] edgeNodes = new PointerBasedOctreeNode[4];
-                int[] c = {
-                        faceProcEdgeMask[dir][i][1],
-                        faceProcEdgeMask[dir][i][2],
-                        faceProcEdgeMask[dir][i][3],
-                        faceProcEdgeMask[dir][i][4],
-                };
-
-                int[] order = orders[faceProcEdgeMask[dir][i][0]];
-                for (int j = 0; j < 4; j++) {
-                    if (!isBranch[order[j]]) {
-                        edgeNodes[j] = node[order[j]];
-                    }
-                    else {
-                        edgeNodes[j] = node[order[j]].children[c[j]];
-                    }
-                }
-
-                ContourEdgeProc(edgeNodes, faceProcEdgeMask[dir][i][5], buffer, isSeam, chunkSize);
-            }
-        }
-    }
-
-    public void ContourCellProc(OctreeNode node, List<Integer> buffer, boolean isSeam, int chunkSize) {
-        if (node == null || node.Type == Node_Leaf) {
-            return;
-        }
-
-        for (int i = 0; i < 8; i++) {
-            ContourCellProc(node.children[i], buffer, isSeam, chunkSize);
-        }
-
-        for (int i = 0; i < 12; i++) {
-            OctreeNode[] faceNodes = new PointerBasedOctreeNode[2];
-            int[] c = { cellProcFaceMask[i][0], cellProcFaceMask[i][1] };
-
-            faceNodes[0] = node.children[c[0]];
-            faceNodes[1] = node.children[c[1]];
-
-            ContourFaceProc(faceNodes, cellProcFaceMask[i][2], buffer, isSeam, chunkSize);
-        }
-
-        for (int i = 0; i < 6; i++) {
-            OctreeNode[] edgeNodes = new PointerBasedOctreeNode[4];
-            int[] c = {cellProcEdgeMask[i][0], cellProcEdgeMask[i][1], cellProcEdgeMask[i][2], cellProcEdgeMask[i][3]};
-
-            for (int j = 0; j < 4; j++) {
-                edgeNodes[j] = node.children[c[j]];
-            }
-
-            ContourEdgeProc(edgeNodes, cellProcEdgeMask[i][4], buffer, isSeam, chunkSize);
-        }
-    }
-
-    private void GenerateVertexIndices(OctreeNode node, List<MeshVertex> vertexBuffer) {
-        if (node == null) {
-            return;
-        }
-        if (node.Type != Node_Leaf) {
-            for (int i = 0; i < 8; i++) {
-                GenerateVertexIndices(node.children[i], vertexBuffer);
-            }
-        }
-        if (node.Type != Node_Internal) {
-            node.index = vertexBuffer.size();
-            vertexBuffer.add(createMeshVertex(node));
-        }
-    }
-
-    private MeshVertex createMeshVertex(OctreeNode node){
-        if (node instanceof PointerBasedOctreeNode) {
-            return new MeshVertex(((PointerBasedOctreeNode)node).drawInfo.position,
-                    ((PointerBasedOctreeNode)node).drawInfo.averageNormal,
-                    ((PointerBasedOctreeNode)node).drawInfo.color);
-        }
-        return null;
-    }
-
-    protected void GenerateMeshFromOctree(OctreeNode node, boolean isSeam, MeshBuffer buffer, int chunkSize) {
-        if (node == null) {
-            return;
+    public final void processNodesToMesh(List<OctreeNode> seamNodes, Vec3i currNodeMin, int rootNodeSize, boolean isSeam, MeshBuffer meshBuffer){
+        LinearSeamMesher mesher = new LinearSeamMesher(currNodeMin, rootNodeSize, meshGen.MATERIAL_AIR, seamNodes.size());
+        for (OctreeNode node : seamNodes) {
+            OctreeDrawInfo drawInfo = ((PointerBasedOctreeNode) node).drawInfo;
+            mesher.addNode(node.min, node.size, node.corners, node.getChunk(), drawInfo.position, drawInfo.averageNormal, drawInfo.color);
         }
-        List<MeshVertex> vertices = new ArrayList<>();
-        List<Integer> indcies = new ArrayList<>();
-        GenerateVertexIndices(node, vertices);
-        ContourCellProc(node, indcies, isSeam, chunkSize);
-
-        buffer.setVertices(BufferUtil.createDcFlippedBufferAOS(vertices));
-        buffer.setIndicates(BufferUtil.createFlippedBuffer(indcies));
-        buffer.setNumVertices(vertices.size());
-        buffer.setNumIndicates(indcies.size());
-        vertices.clear();
-        indcies.clear();
+        mesher.generate(isSeam, meshBuffer);
     }
 
-    public final void processNodesToMesh(List<OctreeNode> seamNodes, Vec3i currNodeMin, int rootNodeSize, boolean isSeam, MeshBuffer meshBuffer){
-        OctreeNode seamOctreeRoot = constructTreeUpwards(new ArrayList<>(seamNodes), currNodeMin, rootNodeSize);
-        GenerateMeshFromOctree(seamOctreeRoot, isSeam, meshBuffer, rootNodeSize);
+    // border nodes of the implementations that collect them as octree nodes, all have the leaf size of the chunk
+    protected BorderNodes createBorderNodes(ChunkNode chunk, List<OctreeNode> seamNodes) {
+        int leafSize = chunk.size / meshGen.getVoxelsPerChunk();
+        BorderNodes borderNodes = new BorderNodes(chunk.min, leafSize, VoxelHelperUtils.ColourForMinLeafSize(leafSize), seamNodes.size());
+        for (int i = 0; i < seamNodes.size(); i++) {
+            OctreeNode node = seamNodes.get(i);
+            OctreeDrawInfo drawInfo = ((PointerBasedOctreeNode) node).drawInfo;
+            borderNodes.codes[i] = meshGen.codeForPosition(node.min.sub(chunk.min).div(leafSize));
+            borderNodes.corners[i] = node.corners;
+            borderNodes.positions[i * 3] = drawInfo.position.X;
+            borderNodes.positions[i * 3 + 1] = drawInfo.position.Y;
+            borderNodes.positions[i * 3 + 2] = drawInfo.position.Z;
+            borderNodes.normals[i * 3] = drawInfo.averageNormal.X;
+            borderNodes.normals[i * 3 + 1] = drawInfo.averageNormal.Y;
+            borderNodes.normals[i * 3 + 2] = drawInfo.averageNormal.Z;
+        }
+        return borderNodes;
     }
 
     protected void inlineInsertionSwap8(int[] data) {
@@ -404,32 +113,36 @@ public abstract class AbstractDualContouring implements DualContouring{
 //	    float dz = Density.Density_Func(p.add(new Vec3f(0.f, 0.f, H)), densityField) - Density.Density_Func(p.sub(new Vec3f(0.f, 0.f, H)), densityField);
 
         float H = 1f;
-        Vec4f xOffcet = new Vec4f(H, 0.f, 0.f, 0.f);
-        Vec4f yOffcet = new Vec4f(0.f, H, 0.f, 0.f);
-        Vec4f zOffcet = new Vec4f(0.f, 0.f, H, 0.f);
-        float dx = getNoise(p.add(xOffcet)) - getNoise(p.sub(xOffcet));
-        float dy = getNoise(p.add(yOffcet)) - getNoise(p.sub(yOffcet));
-        float dz = getNoise(p.add(zOffcet)) - getNoise(p.sub(zOffcet));
+        // central differences of the heightfield, the y differences share the terrain height of the (x, z) column
+        int x = (int) p.x, y = (int) p.y, z = (int) p.z;
+        float terrain = getTerrainHeight(x, z);
+        float dx = getNoise(y, getTerrainHeight((int) (p.x + H), z)) - getNoise(y, getTerrainHeight((int) (p.x - H), z));
+        float dy = getNoise((int) (p.y + H), terrain) - getNoise((int) (p.y - H), terrain);
+        float dz = getNoise(y, getTerrainHeight(x, (int) (p.z + H))) - getNoise(y, getTerrainHeight(x, (int) (p.z - H)));
 
         Vec4f v = new Vec4f(dx, dy, dz);
         v.normalize();
         return v;
     }
 
+    /*
+     Crossing of the axis aligned edge p0 - p1 on the heightfield y - terrainHeight(x, z) + 800. The density is linear
+     in y, the crossing of a y edge is terrainHeight - 800 from one height lookup. For x and z edges the density is
+     interpolated linearly between the columns of the two end points, two lookups at every LOD. An edge without a sign
+     change of the heightfield (changed by CSG) gets the end point with the smaller density.
+     */
     public Vec4f ApproximateZeroCrossingPosition(Vec3f p0, Vec3f p1) {
-        float minValue = 100000.f;
-        float t = 0.f;
-        float currentT = 0.f;
-        int steps = 8;  //16;
-        float increment = 1.f / steps;
-        for (int i = 0; i <= steps; i++) {
-            Vec3f p = VoxelHelperUtils.mix(p0, p1, currentT);
-            float density = Math.abs(getNoise(p));
-            if (density < minValue) {
-                minValue = density;
-                t = currentT;
-            }
-            currentT += increment;
+        int x0 = (int) p0.X, z0 = (int) p0.Z;
+        int x1 = (int) p1.X, z1 = (int) p1.Z;
+        float terrain0 = getTerrainHeight(x0, z0);
+        float terrain1 = x0 == x1 && z0 == z1 ? terrain0 : getTerrainHeight(x1, z1);
+        float density0 = getNoise((int) p0.Y, terrain0);
+        float density1 = getNoise((int) p1.Y, terrain1);
+        float t;
+        if ((density0 < 0.f) != (density1 < 0.f)) {
+            t = Math.min(Math.max(density0 / (density0 - density1), 0.f), 1.f);
+        } else {
+            t = Math.abs(density0) <= Math.abs(density1) ? 0.f : 1.f;
         }
         return new Vec4f(VoxelHelperUtils.mix(p0, p1, t), t);
     }
@@ -439,7 +152,7 @@ public abstract class AbstractDualContouring implements DualContouring{
         return chunkScaleSize * meshGen.leafSizeScale;
     }
 
-    public void computeApplyCSGOperations(CSGOperationInfo lastOperation, ChunkNode node){
+    public void computeApplyCSGOperations(List<CSGOperationInfo> operations, ChunkNode node){
     }
 
     private final Vec3i[] BORDER_EDGE_OFFSETS = {
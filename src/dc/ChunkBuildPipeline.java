@@ -0,0 +1,276 @@
+package dc;
+
+import core.math.Vec3f;
+import dc.entities.MeshBuffer;
+import dc.utils.Aabb;
+import dc.utils.Frustum;
+import dc.utils.VoxelHelperUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ Chunk construction of ChunksManager.update as a pipeline of stages: density -> octree -> mesh -> simplify,
+ followed by the seam stage over all chunks that need new seams. Publishing the results (physics, render list) stays
+ on the update thread. Every stage has its own executor and concurrency limit, so e.g. a slow mesh simplification
+ overlaps with density generation of the next chunk.
+
+ The density stage takes chunks from a priority queue: chunks inside the view frustum first, then by distance to
+ the camera. A queued chunk is dropped if it is not selected anymore when the density stage picks it up (the camera
+ moves while the update runs), it stays inactive and will be selected again by a later update if still needed.
+ The other stages have bounded queues, a full queue makes the previous stage run the task itself.
+
+ shutdown does not interrupt the running tasks (an interrupt closes the FileChannel's of the DensityFieldStore), it
+ waits for them. The builds which did not start yet fail with RejectedExecutionException, so the blocked
+ buildChunks / buildSeams return.
+ */
+public class ChunkBuildPipeline<T> {
+    final public static Logger logger = Logger.getLogger(ChunkBuildPipeline.class.getName());
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+    // runs the task on the submitting thread if the queue is full, as CallerRunsPolicy, but rejects it after shutdown
+    private static final RejectedExecutionHandler RUN_IN_CALLER = (task, executor) -> {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("chunk build pipeline is shut down");
+        }
+        task.run();
+    };
+
+    private final ChunkBuildStages<T> stages;
+    private final ThreadPoolExecutor densityExecutor;
+    private final ThreadPoolExecutor octreeExecutor;
+    private final ThreadPoolExecutor meshExecutor;
+    private final ThreadPoolExecutor simplifyExecutor;
+    private final ThreadPoolExecutor seamExecutor;
+    private volatile boolean shutdown = false;
+
+    public ChunkBuildPipeline(ChunkBuildStages<T> stages, int parallelism) {
+        this.stages = stages;
+        int simplifyParallelism = Math.max(1, parallelism / 2);
+        densityExecutor = createExecutor("density", parallelism, new PriorityBlockingQueue<>());
+        octreeExecutor = createExecutor("octree", parallelism, new LinkedBlockingQueue<>(parallelism * 2));
+        meshExecutor = createExecutor("mesh", parallelism, new LinkedBlockingQueue<>(parallelism * 2));
+        simplifyExecutor = createExecutor("simplify", simplifyParallelism, new LinkedBlockingQueue<>(simplifyParallelism * 2));
+        // a seam only reads the border nodes of its chunks and writes its own mesh, seams are generated in parallel
+        seamExecutor = createExecutor("seam", parallelism, new LinkedBlockingQueue<>());
+        densityExecutor.prestartAllCoreThreads();   // so the first chunks go through the priority queue as well
+    }
+
+    /*
+     Runs the chunks through the density, octree, mesh and simplify stages and blocks until all of them are built or dropped.
+     Returns the built chunks in priority order.
+     */
+    public List<ChunkNode> buildChunks(List<ChunkNode> chunks, Vec3f camPos, Predicate<ChunkNode> isStillSelected,
+                                       BiConsumer<ChunkNode, MeshBuffer> simplifyStage) {
+        List<ChunkBuild> builds = new ArrayList<>(chunks.size());
+        List<CompletableFuture<ChunkBuild>> futures = new ArrayList<>(chunks.size());
+        for (ChunkNode chunk : chunks) {
+            boolean inFrustum = Frustum.getFrustum().AABBInsideFrustum(new Aabb(chunk.min, chunk.size));
+            ChunkBuild build = new ChunkBuild(chunk, inFrustum, VoxelHelperUtils.ChebyshevDistance(chunk, camPos), builds.size());
+            builds.add(build);
+
+            CompletableFuture<ChunkBuild> density = new CompletableFuture<>();
+            try {
+                densityExecutor.execute(new DensityTask(build, isStillSelected, density));
+            } catch (RejectedExecutionException e) {
+                density.completeExceptionally(e);
+            }
+            futures.add(density
+                    .thenApplyAsync(this::octreeStage, octreeExecutor)
+                    .thenApplyAsync(this::meshStage, meshExecutor)
+                    .thenApplyAsync(b -> simplifyStage(b, simplifyStage), simplifyExecutor));
+        }
+
+        builds.sort(null);
+        List<ChunkNode> builtChunks = new ArrayList<>(builds.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).join();
+            } catch (CompletionException e) {
+                logFailure("chunk " + chunks.get(i) + " build", e.getCause());
+            }
+        }
+        for (ChunkBuild build : builds) {
+            if (build.built) {
+                builtChunks.add(build.chunk);
+            }
+        }
+        return builtChunks;
+    }
+
+    // runs seamStage for every chunk on the seam executor and blocks until all seams are done, the results are published by the caller
+    public void buildSeams(Collection<ChunkNode> chunks, Consumer<ChunkNode> seamStage) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>(chunks.size());
+        for (ChunkNode chunk : chunks) {
+            try {
+                futures.add(CompletableFuture.runAsync(() -> {
+                    checkRunning();
+                    seamStage.accept(chunk);
+                }, seamExecutor));
+            } catch (RejectedExecutionException e) {
+                logFailure("seam build", e);
+                break;
+            }
+        }
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                logFailure("seam build", e.getCause());
+            }
+        }
+    }
+
+    // the octree cleanup and DensityFieldStore.close may follow, no stage task runs after it returns
+    public void shutdown() {
+        shutdown = true;
+        ThreadPoolExecutor[] executors = {densityExecutor, octreeExecutor, meshExecutor, simplifyExecutor, seamExecutor};
+        for (ThreadPoolExecutor executor : executors) {
+            executor.shutdown();
+        }
+        // the queued tasks of the other stages see the shutdown flag and fail at once
+        List<Runnable> queued = new ArrayList<>();
+        densityExecutor.getQueue().drainTo(queued);
+        for (Runnable task : queued) {
+            ((DensityTask) task).result.completeExceptionally(new RejectedExecutionException("chunk build pipeline is shut down"));
+        }
+        try {
+            for (ThreadPoolExecutor executor : executors) {
+                if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.log(Level.WARNING, "chunk build pipeline did not stop in " + SHUTDOWN_TIMEOUT_SECONDS + " s");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkRunning() {
+        if (shutdown) {
+            throw new RejectedExecutionException("chunk build pipeline is shut down");
+        }
+    }
+
+    private static void logFailure(String build, Throwable e) {
+        if (e instanceof RejectedExecutionException) {
+            logger.log(Level.FINE, build + " is dropped, the pipeline is shut down");
+        } else {
+            logger.log(Level.SEVERE, build + " failed", e);
+        }
+    }
+
+    private ChunkBuild octreeStage(ChunkBuild build) {
+        checkRunning();
+        if (build.state != null) {
+            stages.constructOctree(build.chunk, build.state);
+        }
+        return build;
+    }
+
+    private ChunkBuild meshStage(ChunkBuild build) {
+        checkRunning();
+        if (build.state != null) {
+            build.meshBuffer = new MeshBuffer();
+            build.chunk.chunkBorderNodes = null;
+            build.chunk.active = stages.generateMesh(build.chunk, build.state, build.meshBuffer);
+            build.chunk.buildVersion++;
+            build.state = null;
+            build.built = true;
+        }
+        return build;
+    }
+
+    private ChunkBuild simplifyStage(ChunkBuild build, BiConsumer<ChunkNode, MeshBuffer> simplifyStage) {
+        checkRunning();
+        if (build.built && build.chunk.active) {
+            simplifyStage.accept(build.chunk, build.meshBuffer);
+            long time = System.nanoTime() - build.startTime;
+            logger.fine(() -> String.format("created chunk %s in %,d", build.chunk, time / (long) 1E3));
+        }
+        build.meshBuffer = null;
+        return build;
+    }
+
+    private static ThreadPoolExecutor createExecutor(String stageName, int threads, BlockingQueue<Runnable> queue) {
+        AtomicInteger count = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, r -> {
+            Thread thread = new Thread(r);
+            thread.setName("ChunkBuildPipeline " + stageName + " " + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, RUN_IN_CALLER);
+    }
+
+    private final class ChunkBuild implements Comparable<ChunkBuild> {
+        private final ChunkNode chunk;
+        private final boolean inFrustum;
+        private final float distance;
+        private final int order;
+        private T state;
+        private MeshBuffer meshBuffer;
+        private long startTime;
+        private volatile boolean built = false;
+
+        ChunkBuild(ChunkNode chunk, boolean inFrustum, float distance, int order) {
+            this.chunk = chunk;
+            this.inFrustum = inFrustum;
+            this.distance = distance;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(ChunkBuild o) {
+            if (inFrustum != o.inFrustum) {
+                return inFrustum ? -1 : 1;
+            }
+            int result = Float.compare(distance, o.distance);
+            return result != 0 ? result : Integer.compare(order, o.order);
+        }
+    }
+
+    private final class DensityTask implements Runnable, Comparable<DensityTask> {
+        private final ChunkBuild build;
+        private final Predicate<ChunkNode> isStillSelected;
+        private final CompletableFuture<ChunkBuild> result;
+
+        DensityTask(ChunkBuild build, Predicate<ChunkNode> isStillSelected, CompletableFuture<ChunkBuild> result) {
+            this.build = build;
+            this.isStillSelected = isStillSelected;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            try {
+                checkRunning();
+                if (isStillSelected.test(build.chunk)) {
+                    build.startTime = System.nanoTime();
+                    build.state = stages.loadDensityField(build.chunk);
+                }
+                result.complete(build);
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        @Override
+        public int compareTo(DensityTask o) {
+            return build.compareTo(o.build);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package dc;
+
+import dc.entities.MeshBuffer;
+
+/*
+ createLeafVoxelNodes split into the stages of ChunkBuildPipeline. T is the per-chunk build state an implementation
+ hands from one stage to the next. Every stage of one chunk runs after the previous one has finished,
+ stages of different chunks run concurrently.
+ */
+public interface ChunkBuildStages<T> {
+    // density stage: generate (or load) the density field of the chunk, never returns null
+    T loadDensityField(ChunkNode node);
+
+    // octree stage: find the active voxels and solve the leaf vertices
+    void constructOctree(ChunkNode node, T state);
+
+    // mesh stage: returns false if the chunk has no surface and sets node.chunkBorderNodes, same as createLeafVoxelNodes
+    boolean generateMesh(ChunkNode node, T state, MeshBuffer meshBuffer);
+}
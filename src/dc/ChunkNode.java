@@ -2,8 +2,7 @@ package dc;
 
 import core.math.Vec3i;
 import core.physics.WorldCollisionNode;
-
-import java.util.List;
+import dc.entities.BorderNodes;
 
 public class ChunkNode {
     public Vec3i min;
@@ -11,7 +10,7 @@ public class ChunkNode {
     public boolean	active = false;
     public boolean	invalidated = false;
     public boolean	empty = false;
-    public List<OctreeNode> chunkBorderNodes;
+    public BorderNodes chunkBorderNodes;
     public RenderMesh renderMesh, seamMesh;
     public WorldCollisionNode worldNode;
     public boolean canBeSelected = false;
@@ -19,6 +18,9 @@ public class ChunkNode {
     public boolean chunkIsChanged = false;
     public ReduceStateEnum reduceStatus = ReduceStateEnum.INITIAL;
     public long chunkCode;
+    public int buildVersion;        // bumped on every build of the chunk
+    public int activeChunks;        // active chunks in the subtree of the chunk, itself included
+    public SeamStamp seamStamp;     // chunks the seam mesh was built from
 
     public ChunkNode(){
         min = new Vec3i(0, 0, 0);
@@ -9,6 +9,7 @@ import core.kernel.Camera;
 import core.kernel.Input;
 import core.math.Vec2f;
 import core.math.Vec3f;
+import core.math.Vec3i;
 import core.math.Vec4i;
 import core.model.Mesh;
 import core.model.Vertex;
@@ -20,9 +21,11 @@ import core.scene.GameObject;
 import core.utils.Constants;
 import dc.csg.CSGOperationsProcessor;
 import dc.csg.CpuCsgImpl;
+import dc.entities.BorderNodes;
 import dc.entities.DebugDrawBuffer;
 import dc.impl.CPUDensityField;
 import dc.impl.CpuOctree;
+import dc.impl.DensityFieldStore;
 import dc.impl.LevenLinearCPUOctreeImpl;
 import dc.impl.MeshGenerationContext;
 import dc.shaders.DcSimpleShader;
@@ -56,23 +59,32 @@ public class ChunkOctreeWrapper extends GameObject {
     private RenderShape brushShape = RenderShape.RenderShape_Sphere;
     private boolean isAddOperation = false;
     private final ExecutorService service;
+    private static final long DENSITY_FIELD_CACHE_BYTES = 256L << 20;
+    private static final long OCTREE_CACHE_BYTES = 512L << 20;
+    private final BoundedLruCache<Vec4i, CPUDensityField> cpuDensityFieldCache;
+    private final BoundedLruCache<Vec4i, CpuOctree> cpuOctreeCache;
+    private final DensityFieldStore densityFieldStore;
+    private final VoxelOctree voxelOctree;
     //private ModelEntity actorCSGCube;
 
     public ChunkOctreeWrapper() {
         service = Executors.newSingleThreadExecutor();
         meshGenCtx = new MeshGenerationContext(32);
-        SimplexNoise.getInstance("./res/floatArray.dat", meshGenCtx.worldSizeXZ);
-        //actorCSGCube = new ModelEntity(new RenderDebugCmdBuffer().createCube());
-        physics = new JBulletPhysics(meshGenCtx.worldBounds, 128, playerCollision);
         Camera camera = Camera.getInstance();
         camera.setPosition(new Vec3f(44.94776f,-4.30505f,-1229.6176f));
         camera.setForward(new Vec3f(-0.05808757f,-0.20107773f,0.9778515f));
         camera.setUp(new Vec3f(-0.011923655f,0.97957534f,0.20072392f));
+        SimplexNoise.getInstance("./res/heightmap.dat", meshGenCtx.worldSizeXZ, camera.getPosition());
+        //actorCSGCube = new ModelEntity(new RenderDebugCmdBuffer().createCube());
+        physics = new JBulletPhysics(meshGenCtx.worldBounds, 128, playerCollision);
         if(playerCollision) {
             camera.setPhysics(physics);
         }
-        Map<Vec4i, CPUDensityField> cpuDensityFieldCache = new HashMap<>();
-        Map<Vec4i, CpuOctree> cpuOctreeCache = new HashMap<>();
+        cpuDensityFieldCache = new BoundedLruCache<>("density field",
+                DENSITY_FIELD_CACHE_BYTES, CPUDensityField::getSizeInBytes, field -> field.csgEdited && !field.persisted);
+        cpuOctreeCache = new BoundedLruCache<>("octree",
+                OCTREE_CACHE_BYTES, CpuOctree::getSizeInBytes, octree -> false);
+        densityFieldStore = new DensityFieldStore(meshGenCtx, "./res/density", SimplexNoise.getHeightmapSignature());
         Map<Long, ChunkNode> mortonCodesChunksMap = new HashMap<>();
         /*
         This is GPU initialisations.
@@ -93,7 +105,7 @@ public class ChunkOctreeWrapper extends GameObject {
             //VoxelOctree voxelOctree = new ManifoldDCOctreeImpl(meshGenCtx);
         }
         */
-        VoxelOctree voxelOctree = new LevenLinearCPUOctreeImpl(meshGenCtx, new CpuCsgImpl(mortonCodesChunksMap), cpuDensityFieldCache, cpuOctreeCache, mortonCodesChunksMap);
+        voxelOctree = new LevenLinearCPUOctreeImpl(meshGenCtx, new CpuCsgImpl(mortonCodesChunksMap), cpuDensityFieldCache, cpuOctreeCache, densityFieldStore, mortonCodesChunksMap);
         chunksManager = new ChunksManager(voxelOctree, meshGenCtx, physics, camera, playerCollision, mortonCodesChunksMap);
         csgProcessor = new CSGOperationsProcessor(voxelOctree, meshGenCtx, camera, mortonCodesChunksMap);
         logger.log(Level.SEVERE, "{0}={1}", new Object[]{"Initialise", "complete"});
@@ -170,7 +182,11 @@ public class ChunkOctreeWrapper extends GameObject {
         }
          */
         chunksManager.clean();
+        voxelOctree.shutdown();
         service.shutdown();
+        densityFieldStore.close();
+        logger.log(Level.INFO, cpuDensityFieldCache.toString());
+        logger.log(Level.INFO, cpuOctreeCache.toString());
     }
 
     private Renderer getRenderer(RenderMesh node){
@@ -280,8 +296,10 @@ public class ChunkOctreeWrapper extends GameObject {
 
     private void renderDebugVoxelsBounds(ChunkNode node){
         RenderDebugCmdBuffer renderDebugVoxelsBounds = new RenderDebugCmdBuffer();
-        for(OctreeNode n : node.chunkBorderNodes){
-            renderDebugVoxelsBounds.addCube(Constants.Green, 0.2f, n.min.toVec3f(), n.size);
+        BorderNodes borderNodes = node.chunkBorderNodes;
+        for (int i = 0; i < borderNodes.size; i++) {
+            Vec3i min = meshGenCtx.positionForCode(borderNodes.codes[i]).mul(borderNodes.leafSize).add(borderNodes.chunkMin);
+            renderDebugVoxelsBounds.addCube(Constants.Green, 0.2f, min.toVec3f(), borderNodes.leafSize);
         }
         DebugDrawBuffer buf = renderDebugVoxelsBounds.UpdateDebugDrawBuffer();
         DebugMeshVBO debugMeshBuffer = new DebugMeshVBO();
@@ -6,6 +6,7 @@ import core.math.Vec3f;
 import core.math.Vec3i;
 import core.physics.Physics;
 import core.physics.WorldCollisionNode;
+import dc.entities.BorderNodes;
 import dc.entities.MeshBuffer;
 import dc.impl.MeshGenerationContext;
 import dc.impl.Morton3D;
@@ -16,7 +17,6 @@ import dc.utils.Frustum;
 import dc.utils.Ray;
 import dc.utils.VoxelHelperUtils;
 
-import java.text.NumberFormat;
 import java.util.*;
 import java.util.logging.Logger;
 
@@ -32,10 +32,10 @@ public class ChunksManager {
     private List<RenderMesh> invalidateMeshes;
     private List<ChunkNode> currActiveNodes;
     private final Physics physics;
-    private static final NumberFormat INT_FORMATTER = NumberFormat.getIntegerInstance();
     private ArrayList<ChunkNode> prevSelectedNodes;
     private final Map<Long, ChunkNode> mortonCodesChunksMap;
     private final boolean useMeshSimplifier = true;
+    private final ChunkBuildPipeline<?> buildPipeline;
 
     public Vec3f getRayCollisionPos(){
         return physics.getCollisionPos();
@@ -52,6 +52,7 @@ public class ChunksManager {
         this.physics = ph;
         this.voxelOctree = voxelOctree;
         this.camera = cam;
+        this.buildPipeline = createBuildPipeline(voxelOctree, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
         buildChunkOctree();
         update();
         if(enablePhysics) {
@@ -147,6 +148,9 @@ public class ChunksManager {
     }
 
     private void ReleaseClipmapNodeData(ChunkNode node, ArrayList<RenderMesh> invalidatedMeshes) {
+        if (node.active) {
+            countActiveChunk(node, -1);
+        }
         node.active = false;
 
         if (node.renderMesh!=null) {
@@ -157,6 +161,7 @@ public class ChunksManager {
             invalidatedMeshes.add(node.seamMesh);
             node.seamMesh = null;
         }
+        node.seamStamp = null;
         if(node.worldNode!=null){
             if(node.worldNode.mainMesh!=null){
                 physics.RemoveMeshData(node.worldNode.mainMesh);
@@ -184,9 +189,48 @@ public class ChunksManager {
     }
 
     public void clean(){
+        buildPipeline.shutdown();
         physics.Physics_Shutdown();
     }
 
+    @SuppressWarnings("unchecked")
+    private static ChunkBuildPipeline<?> createBuildPipeline(VoxelOctree voxelOctree, int parallelism) {
+        if (voxelOctree instanceof ChunkBuildStages) {
+            return new ChunkBuildPipeline<>((ChunkBuildStages<Object>) voxelOctree, parallelism);
+        }
+        // octree implementations without stages build the whole chunk in the mesh stage
+        return new ChunkBuildPipeline<>(new ChunkBuildStages<ChunkNode>() {
+            @Override
+            public ChunkNode loadDensityField(ChunkNode node) {
+                return node;
+            }
+
+            @Override
+            public void constructOctree(ChunkNode node, ChunkNode state) {
+            }
+
+            @Override
+            public boolean generateMesh(ChunkNode node, ChunkNode state, MeshBuffer meshBuffer) {
+                return voxelOctree.createLeafVoxelNodes(node, meshBuffer);
+            }
+        }, parallelism);
+    }
+
+    // the camera keeps moving while chunks are built, a chunk is still selected if it can be selected and none of its parents can
+    private boolean isStillSelected(ChunkNode node) {
+        Vec3f camPos = camera.getPosition();
+        if (!checkNodeForSelection(node, camPos) && node.size != meshGen.clipmapLeafSize) {
+            return false;
+        }
+        for (ChunkNode parent = mortonCodesChunksMap.get(node.chunkCode >> 3); parent != null;
+             parent = mortonCodesChunksMap.get(parent.chunkCode >> 3)) {
+            if (checkNodeForSelection(parent, camPos)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public void update() {
         ArrayList<ChunkNode> selectedNodes = new ArrayList<>();
         selectActiveChunkNodes(root, false, camera.getPosition(), selectedNodes);
@@ -197,6 +241,9 @@ public class ChunksManager {
         ArrayList<ChunkNode> reserveNodes = new ArrayList<>();
         ArrayList<ChunkNode> activeNodes = new ArrayList<>();
         for (ChunkNode selectedNode : selectedNodes) {
+            if (!selectedNode.active && !selectedNode.empty && voxelOctree.isChunkWithoutSurface(selectedNode)) {
+                propagateEmptyStateDownward(selectedNode);  // all air or all solid, nothing to build
+            }
             if (!selectedNode.active && !selectedNode.empty) {
                 Aabb aabb = new Aabb(selectedNode.min, selectedNode.size);
                 if (Frustum.getFrustum().AABBInsideFrustum(aabb)) {
@@ -217,18 +264,16 @@ public class ChunksManager {
             }
         }
 
+        List<ChunkNode> builtNodes = buildPipeline.buildChunks(filteredNodes, camera.getPosition(), this::isStillSelected,
+                this::simplifyChunkMesh);
+
         ArrayList<ChunkNode> emptyNodes = new ArrayList<>();
         ArrayList<ChunkNode> constructedNodes = new ArrayList<>();
-        for (ChunkNode filteredNode : filteredNodes) {
-            long time1 = System.nanoTime();
-            boolean result = //filterNodesForDebug(filteredNode) &&
-                    ConstructChunkNodeData(filteredNode);
-            long time2 = System.nanoTime();
-            if(result) {
-                System.out.println("created chunk " + filteredNode + " in " + INT_FORMATTER.format((time2 - time1) / (long) 1E3));
+        for (ChunkNode filteredNode : builtNodes) {
+            if (filteredNode.active) {
+                countActiveChunk(filteredNode, 1);
             }
-
-            if (filteredNode.renderMesh !=null || (filteredNode.chunkBorderNodes !=null && filteredNode.chunkBorderNodes.size()> 0)) {
+            if (filteredNode.renderMesh !=null || (filteredNode.chunkBorderNodes !=null && filteredNode.chunkBorderNodes.size > 0)) {
                 constructedNodes.add(filteredNode);
                 activeNodes.add(filteredNode);
                 physics.Physics_UpdateWorldNodeMainMesh(true, filteredNode);
@@ -242,7 +287,7 @@ public class ChunksManager {
         }
 
         // -----------------------------------construct seams begin-----------------------------------
-        Set<ChunkNode> seamUpdateNodes = new HashSet<>();
+        Set<ChunkNode> seamUpdateNodes = new LinkedHashSet<>();   // in the order of the built chunks
         // 1. for each constructed Node make list of neighbour active Nodes (or neighbour child's) - make list nodes for seam update
         for (ChunkNode constructedNode : constructedNodes) {
             for (int i = 0; i < 8; i++) {
@@ -251,17 +296,26 @@ public class ChunksManager {
                 ChunkNode candidateNeighbour = mortonCodesChunksMap.get(neighbourMortonCode); //findNode(root, constructedNode.size, neighbourMin);
                 if (candidateNeighbour!=null){
                     List<ChunkNode> neighbourActiveNodes = new ArrayList<>();
-                    findActiveNodes(root, candidateNeighbour, neighbourActiveNodes);
+                    findActiveNodes(candidateNeighbour, neighbourActiveNodes);
                     seamUpdateNodes.addAll(neighbourActiveNodes);
                 }
             }
         }
+        // 2. rebuild the seams whose chunks changed in parallel, the others keep their mesh
+        Map<ChunkNode, RenderMesh> prevSeamMeshes = new HashMap<>();
         for (ChunkNode seamUpdateNode : seamUpdateNodes) {
-            if(seamUpdateNode.seamMesh!=null) {
-                invalidatedMeshes.add(seamUpdateNode.seamMesh);
-                seamUpdateNode.seamMesh = null;
+            prevSeamMeshes.put(seamUpdateNode, seamUpdateNode.seamMesh);
+        }
+        buildPipeline.buildSeams(seamUpdateNodes, seamUpdateNode -> updateClipmapSeamMesh(seamUpdateNode));
+        // 3. all seams are done, publish them in the same order
+        for (ChunkNode seamUpdateNode : seamUpdateNodes) {
+            RenderMesh prevSeamMesh = prevSeamMeshes.get(seamUpdateNode);
+            if (seamUpdateNode.seamMesh == prevSeamMesh) {
+                continue;
+            }
+            if (prevSeamMesh != null) {
+                invalidatedMeshes.add(prevSeamMesh);
             }
-            generateClipmapSeamMesh(seamUpdateNode, root);
             if(seamUpdateNode.seamMesh!=null) {
                 physics.Physics_UpdateWorldNodeMainMesh(false, seamUpdateNode);
             }
@@ -281,8 +335,20 @@ public class ChunksManager {
         return selectedChunks;
     }
 
-    private void generateClipmapSeamMesh(ChunkNode node, ChunkNode root){
-        Set<OctreeNode> seamNodes = new HashSet<>(2048);
+    // rebuilds the seam mesh only if a chunk of the seam was replaced or rebuilt since the last build
+    private void updateClipmapSeamMesh(ChunkNode node){
+        Map<ChunkNode, Integer> neighbours = findSeamNeighbours(node);
+        SeamStamp stamp = new SeamStamp(neighbours.keySet());
+        if (stamp.matches(node.seamStamp)) {
+            return;
+        }
+        generateClipmapSeamMesh(node, neighbours);
+        node.seamStamp = stamp;
+    }
+
+    // active chunks of the seam of node with the bits of the neighbour positions they are found at, a big neighbour is found at several
+    private Map<ChunkNode, Integer> findSeamNeighbours(ChunkNode node){
+        Map<ChunkNode, Integer> neighbours = new LinkedHashMap<>();
         for (int i = 0; i < 8; i++) {
             Vec3i neighbourMin = node.min.add(VoxelOctree.CHILD_MIN_OFFSETS[i].mul(node.size));
             //Vec3i neighbourMin = node.min.add(meshGen.offset(i, node.size));
@@ -292,38 +358,55 @@ public class ChunksManager {
                 continue;
             }
             List<ChunkNode> neighbourActiveNodes = new ArrayList<>();
-            findActiveNodes(root, candidateNeighbour, neighbourActiveNodes);
+            findActiveNodes(candidateNeighbour, neighbourActiveNodes);
             for(ChunkNode neighbour : neighbourActiveNodes){
-                seamNodes.addAll(selectSeamNodes(node, neighbour, i));
+                neighbours.merge(neighbour, 1 << i, (a, b) -> a | b);
             }
         }
+        return neighbours;
+    }
+
+    private void generateClipmapSeamMesh(ChunkNode node, Map<ChunkNode, Integer> neighbours){
+        node.seamMesh = null;
+        LinearSeamMesher seamNodes = new LinearSeamMesher(node.min, node.size, meshGen.MATERIAL_AIR, 2048);
+        for (Map.Entry<ChunkNode, Integer> neighbour : neighbours.entrySet()) {
+            selectSeamNodes(node, neighbour.getKey(), neighbour.getValue(), seamNodes);
+        }
         if(seamNodes.isEmpty()) {
             return;
         }
-        ArrayList<OctreeNode> nodes = new ArrayList<>(seamNodes.size());
-        nodes.addAll(seamNodes);
         MeshBuffer meshBuffer = new MeshBuffer();
-        voxelOctree.processNodesToMesh(nodes, node.min, node.size, true, meshBuffer);
+        seamNodes.generate(true, meshBuffer);
         if(meshBuffer.getNumIndicates() < 1){
             return;
         }
         node.seamMesh = new RenderMesh(node.min, node.size, meshBuffer);
     }
 
-    private List<OctreeNode> selectSeamNodes(ChunkNode node, ChunkNode neighbour, int neighbourIndex){
+    private void selectSeamNodes(ChunkNode node, ChunkNode neighbour, int neighbourIndices, LinearSeamMesher seamNodes){
+        BorderNodes borderNodes = neighbour.chunkBorderNodes;
+        if (borderNodes == null) {
+            return;
+        }
         Vec3i chunkMax = node.min.add(node.size);
         Aabb aabb = new Aabb(node.min, node.size * 2);
-        int neighbourScaleSize = neighbour.size / (meshGen.getVoxelsPerChunk() * meshGen.leafSizeScale);
-        List<OctreeNode> selectedSeamNodes = new ArrayList<>();
-        for (OctreeNode octreeSeamNode : neighbour.chunkBorderNodes) {
-            Vec3i max = octreeSeamNode.min.add(neighbourScaleSize * meshGen.leafSizeScale);
-            if (!filterSeamNode(neighbourIndex, chunkMax, octreeSeamNode.min, max) || !aabb.pointIsInside(octreeSeamNode.min)) {
+        int leafSize = borderNodes.leafSize;
+        for (int i = 0; i < borderNodes.size; i++) {
+            Vec3i min = meshGen.positionForCode(borderNodes.codes[i]);
+            min.x = min.x * leafSize + borderNodes.chunkMin.x;
+            min.y = min.y * leafSize + borderNodes.chunkMin.y;
+            min.z = min.z * leafSize + borderNodes.chunkMin.z;
+            if (!aabb.pointIsInside(min)) {
                 continue;
             }
-            octreeSeamNode.setChunk(neighbour);
-            selectedSeamNodes.add(octreeSeamNode);
+            Vec3i max = min.add(leafSize);
+            for (int neighbourIndex = 0; neighbourIndex < 8; neighbourIndex++) {
+                if ((neighbourIndices & (1 << neighbourIndex)) != 0 && filterSeamNode(neighbourIndex, chunkMax, min, max)) {
+                    seamNodes.addNode(min.x, min.y, min.z, neighbour, borderNodes, i);
+                    break;
+                }
+            }
         }
-        return selectedSeamNodes;
     }
 
     private boolean filterSeamNode(int childIndex, Vec3i seamBounds, Vec3i min, Vec3i max) {
@@ -340,26 +423,47 @@ public class ChunksManager {
         return false;
     }
 
-    private void findActiveNodes(ChunkNode node, ChunkNode referenceNode, List<ChunkNode> neighbourActiveNodes){
-        if (node == null || referenceNode == null) {
-            return;
-        }
-        Aabb bbox = new Aabb(node.min, node.size);
-	    Aabb referenceBBox = new Aabb(referenceNode.min, referenceNode.size);
-        if (bbox.pointIsInside(referenceNode.min) || referenceBBox.pointIsInside(node.min)) {
+    /*
+     Active chunks overlapping referenceNode. Chunks of the octree overlap only if one contains the other, so this is the
+     topmost active chunk of the parent chain of referenceNode, or else the topmost active chunks of its subtree.
+     Subtrees without active chunks (ChunkNode.activeChunks) are skipped.
+     */
+    private void findActiveNodes(ChunkNode referenceNode, List<ChunkNode> neighbourActiveNodes){
+        ChunkNode activeParent = null;
+        for (ChunkNode node = referenceNode; node != null; node = mortonCodesChunksMap.get(node.chunkCode >> 3)) {
             if (node.active) {
-                neighbourActiveNodes.add(node);
+                activeParent = node;
             }
-            else if (node.size > meshGen.clipmapLeafSize) {
-                for (int i = 0; i < 8; i++) {
-                    long locCodeChild = (node.chunkCode<<3)|i;
-                    ChunkNode child = mortonCodesChunksMap.get(locCodeChild);
-                    findActiveNodes(child, referenceNode, neighbourActiveNodes);
-                }
+        }
+        if (activeParent != null) {
+            neighbourActiveNodes.add(activeParent);
+        } else {
+            findActiveChildren(referenceNode, neighbourActiveNodes);
+        }
+    }
+
+    private void findActiveChildren(ChunkNode node, List<ChunkNode> neighbourActiveNodes){
+        if (node == null || node.activeChunks == 0) {
+            return;
+        }
+        if (node.active) {
+            neighbourActiveNodes.add(node);
+        }
+        else if (node.size > meshGen.clipmapLeafSize) {
+            for (int i = 0; i < 8; i++) {
+                long locCodeChild = (node.chunkCode<<3)|i;
+                findActiveChildren(mortonCodesChunksMap.get(locCodeChild), neighbourActiveNodes);
             }
         }
     }
 
+    // keeps ChunkNode.activeChunks of the chunk and its parents up to date, delta is 1 for a chunk that became active, -1 for one that is released
+    private void countActiveChunk(ChunkNode node, int delta){
+        for (ChunkNode parent = node; parent != null; parent = mortonCodesChunksMap.get(parent.chunkCode >> 3)) {
+            parent.activeChunks += delta;
+        }
+    }
+
     private boolean filterNodesForDebug(ChunkNode node){
 
         if((node.min.equals(new Vec3i(0, -128, -1088)) && node.size == 64)||
@@ -408,15 +512,8 @@ public class ChunksManager {
         return renderMeshes;
     }
 
-    private boolean ConstructChunkNodeData(ChunkNode chunk) {
-        List<OctreeNode> seamNodes = new ArrayList<>();
-        MeshBuffer meshBuffer = new MeshBuffer();
-        chunk.active = voxelOctree.createLeafVoxelNodes(chunk, seamNodes, meshBuffer);
-        chunk.chunkBorderNodes = seamNodes;
-        if(!chunk.active){
-            return false;
-        }
-
+    // simplify stage of the build pipeline, runs for chunks with surface after the mesh stage
+    private void simplifyChunkMesh(ChunkNode chunk, MeshBuffer meshBuffer) {
         if(useMeshSimplifier && chunk.size > physics.getMaxChunkSize()) {
             Vec3i centrePos = chunk.min.add(new Vec3i(chunk.size / 2));
             int leafSize = meshGen.leafSizeScale * (chunk.size / meshGen.clipmapLeafSize);
@@ -431,7 +528,6 @@ public class ChunksManager {
         if (meshBuffer.getNumIndicates() > 0) {
             chunk.renderMesh = new RenderMesh(chunk.min, chunk.size, meshBuffer);
         }
-        return chunk.active;
     }
 
     private void propagateEmptyStateDownward(ChunkNode node) {
@@ -0,0 +1,349 @@
+package dc;
+
+import core.math.Vec3f;
+import core.math.Vec3i;
+import core.utils.BufferUtil;
+import dc.entities.BorderNodes;
+import dc.entities.MeshBuffer;
+
+import java.util.Arrays;
+
+import static dc.DualContouring.*;
+import static dc.VoxelOctree.CHILD_MIN_OFFSETS;
+import static dc.VoxelOctree.edgevmap;
+
+/*
+ Seam mesher on flat arrays. The nodes are sorted by the Morton code of their min in the seam root (x the highest
+ bit of a level, z the lowest - the child order of CHILD_MIN_OFFSETS) and the octree above them is built into int
+ arrays in that order, so the vertex of a node is its rank in code order, as the depth first walk of the pointer
+ octree gave. The contouring is the cell/face/edge recursion of dual contouring on tree indices, it emits the same
+ triangles in the same order. Nodes not aligned to their size or overlapping an earlier node are dropped.
+ */
+public class LinearSeamMesher {
+    private static final int[][] FACE_EDGE_ORDERS = {{0, 0, 1, 1}, {0, 1, 0, 1}};
+
+    private final int rootX, rootY, rootZ;
+    private final int rootSize;
+    private final int chunkMask;
+    private final int materialAir;
+
+    // input nodes
+    private int numNodes;
+    private int[] nodeMin;          // x, y, z
+    private int[] nodeSize;
+    private int[] nodeCorners;
+    private ChunkNode[] nodeChunk;
+    private float[] nodeVertex;     // position, normal, colour
+
+    // octree, tree node 0 is the root
+    private int numTreeNodes;
+    private int[] treeMin;          // x, y, z
+    private int[] treeSize;
+    private int[] treeNode;         // input node of a leaf, -1 for an internal node
+    private int[] treeChildren;     // 8 per tree node, -1 for no child
+    private int numVertices;
+    private int[] vertexNode;       // input node of every vertex
+    private int[] vertexIndex;      // vertex of every input node
+
+    private boolean isSeam;
+    private int numIndices;
+    private int[] indices;
+
+    public LinearSeamMesher(Vec3i rootMin, int rootNodeSize, int materialAir, int capacity) {
+        this.rootX = rootMin.x;
+        this.rootY = rootMin.y;
+        this.rootZ = rootMin.z;
+        this.rootSize = rootNodeSize * 2;
+        this.chunkMask = ~(rootNodeSize - 1);
+        this.materialAir = materialAir;
+        capacity = Math.max(capacity, 1);
+        nodeMin = new int[capacity * 3];
+        nodeSize = new int[capacity];
+        nodeCorners = new int[capacity];
+        nodeChunk = new ChunkNode[capacity];
+        nodeVertex = new float[capacity * 9];
+    }
+
+    public void addNode(Vec3i min, int size, int corners, ChunkNode chunk, Vec3f position, Vec3f normal, Vec3f color) {
+        int o = add(min.x, min.y, min.z, size, corners, chunk) * 9;
+        float[] v = nodeVertex;
+        v[o] = position.X; v[o + 1] = position.Y; v[o + 2] = position.Z;
+        v[o + 3] = normal.X; v[o + 4] = normal.Y; v[o + 5] = normal.Z;
+        v[o + 6] = color.X; v[o + 7] = color.Y; v[o + 8] = color.Z;
+    }
+
+    // node i of the border nodes of chunk, its min is x, y, z
+    public void addNode(int x, int y, int z, ChunkNode chunk, BorderNodes nodes, int i) {
+        int o = add(x, y, z, nodes.leafSize, nodes.corners[i], chunk) * 9;
+        System.arraycopy(nodes.positions, i * 3, nodeVertex, o, 3);
+        System.arraycopy(nodes.normals, i * 3, nodeVertex, o + 3, 3);
+        Vec3f color = nodes.getColor(i);
+        nodeVertex[o + 6] = color.X;
+        nodeVertex[o + 7] = color.Y;
+        nodeVertex[o + 8] = color.Z;
+    }
+
+    public boolean isEmpty() {
+        return numNodes == 0;
+    }
+
+    private int add(int x, int y, int z, int size, int corners, ChunkNode chunk) {
+        if (numNodes == nodeSize.length) {
+            int capacity = numNodes * 2;
+            nodeMin = Arrays.copyOf(nodeMin, capacity * 3);
+            nodeSize = Arrays.copyOf(nodeSize, capacity);
+            nodeCorners = Arrays.copyOf(nodeCorners, capacity);
+            nodeChunk = Arrays.copyOf(nodeChunk, capacity);
+            nodeVertex = Arrays.copyOf(nodeVertex, capacity * 9);
+        }
+        int i = numNodes++;
+        nodeMin[i * 3] = x;
+        nodeMin[i * 3 + 1] = y;
+        nodeMin[i * 3 + 2] = z;
+        nodeSize[i] = size;
+        nodeCorners[i] = corners;
+        nodeChunk[i] = chunk;
+        return i;
+    }
+
+    public void generate(boolean isSeam, MeshBuffer buffer) {
+        this.isSeam = isSeam;
+        buildTree();
+
+        float[] vertices = new float[numVertices * 9];
+        for (int v = 0; v < numVertices; v++) {
+            System.arraycopy(nodeVertex, vertexNode[v] * 9, vertices, v * 9, 9);
+        }
+
+        numIndices = 0;
+        indices = new int[Math.max(64, vertices.length)];
+        if (numTreeNodes > 0) {
+            contourCell(0);
+        }
+
+        buffer.setVertices(BufferUtil.createFlippedBuffer(vertices));
+        buffer.setIndicates(BufferUtil.createFlippedBuffer(Arrays.copyOf(indices, numIndices)));
+        buffer.setNumVertices(numVertices);
+        buffer.setNumIndicates(numIndices);
+    }
+
+    private void buildTree() {
+        numTreeNodes = 0;
+        numVertices = 0;
+        if (numNodes == 0) {
+            return;
+        }
+        int levels = Integer.numberOfTrailingZeros(rootSize);
+        int indexBits = 32 - Integer.numberOfLeadingZeros(numNodes);
+        if (levels * 3 + indexBits > 63) {
+            throw new IllegalStateException("Seam octree is too deep for " + numNodes + " nodes!");
+        }
+        long[] keys = new long[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            int x = nodeMin[i * 3] - rootX, y = nodeMin[i * 3 + 1] - rootY, z = nodeMin[i * 3 + 2] - rootZ;
+            if (x < 0 || y < 0 || z < 0 || x >= rootSize || y >= rootSize || z >= rootSize) {
+                throw new IllegalStateException("Incorrect octree!");
+            }
+            keys[i] = (mortonCode(x, y, z, levels) << indexBits) | i;
+        }
+        Arrays.sort(keys);
+
+        int capacity = numNodes * 2 + 1;
+        treeMin = new int[capacity * 3];
+        treeSize = new int[capacity];
+        treeNode = new int[capacity];
+        treeChildren = new int[capacity * 8];
+        vertexNode = new int[numNodes];
+        vertexIndex = new int[numNodes];
+        addTreeNode(rootX, rootY, rootZ, rootSize, -1);
+
+        long indexMask = (1L << indexBits) - 1;
+        for (long key : keys) {
+            insert((int) (key & indexMask));
+        }
+    }
+
+    private static long mortonCode(int x, int y, int z, int levels) {
+        long code = 0;
+        for (int bit = levels - 1; bit >= 0; bit--) {
+            code = (code << 3) | (((x >> bit) & 1) << 2) | (((y >> bit) & 1) << 1) | ((z >> bit) & 1);
+        }
+        return code;
+    }
+
+    private void insert(int node) {
+        int x = nodeMin[node * 3], y = nodeMin[node * 3 + 1], z = nodeMin[node * 3 + 2];
+        int size = nodeSize[node];
+        int parent = 0;
+        while (true) {
+            if (treeNode[parent] >= 0) {
+                return;     // inside an earlier leaf
+            }
+            int half = treeSize[parent] / 2;
+            if (half < size) {
+                return;
+            }
+            int px = treeMin[parent * 3], py = treeMin[parent * 3 + 1], pz = treeMin[parent * 3 + 2];
+            int j = (x - px >= half ? 4 : 0) | (y - py >= half ? 2 : 0) | (z - pz >= half ? 1 : 0);
+            int cx = px + CHILD_MIN_OFFSETS[j].x * half;
+            int cy = py + CHILD_MIN_OFFSETS[j].y * half;
+            int cz = pz + CHILD_MIN_OFFSETS[j].z * half;
+            int child = treeChildren[parent * 8 + j];
+            if (half == size) {
+                if (child < 0 && cx == x && cy == y && cz == z) {
+                    child = addTreeNode(x, y, z, size, node);
+                    treeChildren[parent * 8 + j] = child;
+                    vertexIndex[node] = numVertices;
+                    vertexNode[numVertices++] = node;
+                }
+                return;
+            }
+            if (child < 0) {
+                child = addTreeNode(cx, cy, cz, half, -1);
+                treeChildren[parent * 8 + j] = child;
+            }
+            parent = child;
+        }
+    }
+
+    private int addTreeNode(int x, int y, int z, int size, int node) {
+        if (numTreeNodes == treeSize.length) {
+            int capacity = numTreeNodes * 2;
+            treeMin = Arrays.copyOf(treeMin, capacity * 3);
+            treeSize = Arrays.copyOf(treeSize, capacity);
+            treeNode = Arrays.copyOf(treeNode, capacity);
+            treeChildren = Arrays.copyOf(treeChildren, capacity * 8);
+        }
+        int t = numTreeNodes++;
+        treeMin[t * 3] = x;
+        treeMin[t * 3 + 1] = y;
+        treeMin[t * 3 + 2] = z;
+        treeSize[t] = size;
+        treeNode[t] = node;
+        Arrays.fill(treeChildren, t * 8, t * 8 + 8, -1);
+        return t;
+    }
+
+    private boolean isInternal(int t) {
+        return treeNode[t] < 0;
+    }
+
+    private int child(int t, boolean branch, int c) {
+        return branch ? treeChildren[t * 8 + c] : t;
+    }
+
+    // the chunk of the seam root a tree node is in, http://ngildea.blogspot.com/2015/07/fixing-seams-bug.html
+    private boolean sameChunkCell(int a, int b) {
+        return ((treeMin[a * 3] ^ treeMin[b * 3]) & chunkMask) == 0 &&
+                ((treeMin[a * 3 + 1] ^ treeMin[b * 3 + 1]) & chunkMask) == 0 &&
+                ((treeMin[a * 3 + 2] ^ treeMin[b * 3 + 2]) & chunkMask) == 0;
+    }
+
+    private void contourCell(int t) {
+        if (t < 0 || !isInternal(t)) {
+            return;
+        }
+        int c = t * 8;
+        for (int i = 0; i < 8; i++) {
+            contourCell(treeChildren[c + i]);
+        }
+        for (int i = 0; i < 12; i++) {
+            contourFace(treeChildren[c + cellProcFaceMask[i][0]], treeChildren[c + cellProcFaceMask[i][1]], cellProcFaceMask[i][2]);
+        }
+        for (int i = 0; i < 6; i++) {
+            int[] mask = cellProcEdgeMask[i];
+            contourEdge(treeChildren[c + mask[0]], treeChildren[c + mask[1]], treeChildren[c + mask[2]], treeChildren[c + mask[3]], mask[4]);
+        }
+    }
+
+    private void contourFace(int n0, int n1, int dir) {
+        if (n0 < 0 || n1 < 0) {
+            return;
+        }
+        // prevent overlapping seams by only processing faces that straddle multiple chunks
+        if (isSeam && sameChunkCell(n0, n1)) {
+            return;
+        }
+        boolean b0 = isInternal(n0), b1 = isInternal(n1);
+        if (!b0 && !b1) {
+            return;
+        }
+        for (int i = 0; i < 4; i++) {
+            int[] mask = faceProcFaceMask[dir][i];
+            contourFace(child(n0, b0, mask[0]), child(n1, b1, mask[1]), mask[2]);
+        }
+        for (int i = 0; i < 4; i++) {
+            int[] mask = faceProcEdgeMask[dir][i];
+            int[] order = FACE_EDGE_ORDERS[mask[0]];
+            int e0 = order[0] == 0 ? child(n0, b0, mask[1]) : child(n1, b1, mask[1]);
+            int e1 = order[1] == 0 ? child(n0, b0, mask[2]) : child(n1, b1, mask[2]);
+            int e2 = order[2] == 0 ? child(n0, b0, mask[3]) : child(n1, b1, mask[3]);
+            int e3 = order[3] == 0 ? child(n0, b0, mask[4]) : child(n1, b1, mask[4]);
+            contourEdge(e0, e1, e2, e3, mask[5]);
+        }
+    }
+
+    private void contourEdge(int n0, int n1, int n2, int n3, int dir) {
+        if (n0 < 0 || n1 < 0 || n2 < 0 || n3 < 0) {
+            return;
+        }
+        // prevent overlapping seams by only processing edges that straddle multiple chunks
+        if (isSeam && sameChunkCell(n0, n1) && sameChunkCell(n1, n2) && sameChunkCell(n2, n3)) {
+            return;
+        }
+        boolean b0 = isInternal(n0), b1 = isInternal(n1), b2 = isInternal(n2), b3 = isInternal(n3);
+        if (!b0 && !b1 && !b2 && !b3) {
+            // if all 4 nodes of the edge belong to one chunk it is meshed by the chunk, not by the seam
+            if (isSeam) {
+                ChunkNode chunk0 = nodeChunk[treeNode[n0]];
+                if (chunk0.equals(nodeChunk[treeNode[n1]]) && nodeChunk[treeNode[n1]].equals(nodeChunk[treeNode[n2]]) &&
+                        nodeChunk[treeNode[n2]].equals(nodeChunk[treeNode[n3]])) {
+                    return;
+                }
+            }
+            processEdge(n0, n1, n2, n3, dir);
+            return;
+        }
+        for (int i = 0; i < 2; i++) {
+            int[] mask = edgeProcEdgeMask[dir][i];
+            contourEdge(child(n0, b0, mask[0]), child(n1, b1, mask[1]), child(n2, b2, mask[2]), child(n3, b3, mask[3]), mask[4]);
+        }
+    }
+
+    private void processEdge(int n0, int n1, int n2, int n3, int dir) {
+        int minSize = Integer.MAX_VALUE;
+        boolean flip = false;
+        boolean signChange = false;
+        int[] edgeMask = processEdgeMask[dir];
+        for (int i = 0; i < 4; i++) {
+            int t = i == 0 ? n0 : i == 1 ? n1 : i == 2 ? n2 : n3;
+            if (treeSize[t] < minSize) {
+                int corners = nodeCorners[treeNode[t]];
+                int edge = edgeMask[i];
+                int m0 = (corners >> edgevmap[edge][0]) & 1;
+                int m1 = (corners >> edgevmap[edge][1]) & 1;
+                minSize = treeSize[t];
+                flip = m1 != 1;
+                signChange = (m0 == materialAir) != (m1 == materialAir);
+            }
+        }
+        if (!signChange) {
+            return;
+        }
+        int i0 = vertexIndex[treeNode[n0]], i1 = vertexIndex[treeNode[n1]];
+        int i2 = vertexIndex[treeNode[n2]], i3 = vertexIndex[treeNode[n3]];
+        if (numIndices + 6 > indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+        int[] b = indices;
+        int o = numIndices;
+        if (!flip) {
+            b[o] = i0; b[o + 1] = i1; b[o + 2] = i3;
+            b[o + 3] = i0; b[o + 4] = i3; b[o + 5] = i2;
+        } else {
+            b[o] = i0; b[o + 1] = i3; b[o + 2] = i1;
+            b[o + 3] = i0; b[o + 4] = i2; b[o + 5] = i3;
+        }
+        numIndices += 6;
+    }
+}
@@ -0,0 +1,32 @@
+package dc;
+
+import java.util.Collection;
+
+/*
+ Chunks a seam mesh was built from with their build versions. The seam of a chunk has to be rebuilt only if one of
+ them was replaced by another LOD or rebuilt since, otherwise the border nodes it was built from are the same.
+ */
+public class SeamStamp {
+    private final ChunkNode[] chunks;
+    private final int[] versions;
+
+    public SeamStamp(Collection<ChunkNode> seamChunks) {
+        chunks = seamChunks.toArray(new ChunkNode[0]);
+        versions = new int[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            versions[i] = chunks[i].buildVersion;
+        }
+    }
+
+    public boolean matches(SeamStamp other) {
+        if (other == null || other.chunks.length != chunks.length) {
+            return false;
+        }
+        for (int i = 0; i < chunks.length; i++) {
+            if (other.chunks[i] != chunks[i] || other.versions[i] != versions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
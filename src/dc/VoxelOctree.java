@@ -38,11 +38,21 @@ public interface VoxelOctree {
     float QEF_ERROR = 1e-6f;
     int QEF_SWEEPS = 4;
 
-    boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer meshBuffer);
+    // builds the mesh of the chunk and sets node.chunkBorderNodes, returns false if the chunk has no surface
+    boolean createLeafVoxelNodes(ChunkNode node, MeshBuffer meshBuffer);
     void processNodesToMesh(List<OctreeNode> seamNodes, Vec3i min, int rootNodeSize, boolean isSeam, MeshBuffer meshBuffer);
-    void computeApplyCSGOperations(CSGOperationInfo lastOperation, ChunkNode node);
+    void computeApplyCSGOperations(List<CSGOperationInfo> operations, ChunkNode node);
     void computeFreeChunkOctree(Vec3i min, int clipmapNodeSize);
 
+    // true if the chunk is known to have no surface (all air or all solid) without generating its density field
+    default boolean isChunkWithoutSurface(ChunkNode node) {
+        return false;
+    }
+
+    // releases the worker threads, called once no more chunks will be built
+    default void shutdown() {
+    }
+
     static int performIntCallableTask(List<Callable<Integer>> tasks, ExecutorService service, Logger logger){
         int size = 0;
         try {
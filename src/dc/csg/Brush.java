@@ -0,0 +1,53 @@
+package dc.csg;
+
+import core.math.Vec3f;
+import dc.entities.CSGOperationInfo;
+
+/*
+ Signed distance of a CSG brush, negative inside. zeroCrossing and normal have sampled defaults,
+ a brush with a closed form (SphereBrush, CuboidBrush) overrides them.
+ */
+public interface Brush {
+    float density(float x, float y, float z);
+
+    // box around all points with density <= 0
+    Vec3f getMin();
+
+    Vec3f getMax();
+
+    // t of the brush surface on the segment p0 - p1, the sample with the smallest |density| of 17 samples
+    default float zeroCrossing(Vec3f p0, Vec3f p1) {
+        float minDensity = Float.MAX_VALUE;
+        float crossing = 0.f;
+        for (float t = 0.f; t <= 1.f; t += (1.f/16.f)) {
+            float d = Math.abs(density(p0.X + (p1.X - p0.X) * t, p0.Y + (p1.Y - p0.Y) * t, p0.Z + (p1.Z - p0.Z) * t));
+            if (d < minDensity) {
+                crossing = t;
+                minDensity = d;
+            }
+        }
+        return crossing;
+    }
+
+    // outward unit normal of the brush surface at p, central differences of the density
+    default Vec3f normal(Vec3f p) {
+        float h = 0.001f;
+        float dx = density(p.X + h, p.Y, p.Z) - density(p.X - h, p.Y, p.Z);
+        float dy = density(p.X, p.Y + h, p.Z) - density(p.X, p.Y - h, p.Z);
+        float dz = density(p.X, p.Y, p.Z + h) - density(p.X, p.Y, p.Z - h);
+        return new Vec3f(dx, dy, dz).normalize();
+    }
+
+    static Brush create(CSGOperationInfo operation) {
+        Vec3f origin = operation.getOrigin().getVec3f();
+        Vec3f halfDimensions = operation.getDimensions().getVec3f();
+        switch (operation.getBrushShape()) {
+            case RenderShape_Cube:
+                return new CuboidBrush(origin, halfDimensions);
+            case RenderShape_Sphere:
+                return new SphereBrush(origin, halfDimensions.X);
+            default:
+                throw new IllegalArgumentException("no brush for shape " + operation.getBrushShape());
+        }
+    }
+}
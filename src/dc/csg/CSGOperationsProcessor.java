@@ -48,22 +48,28 @@ public class CSGOperationsProcessor {
         }
     }
 
+    // drains the queue and applies all its operations in queue order, every touched chunk is processed once per batch
     private void processCSGOperationsImpl(){
-        Set<CSGOperationInfo> operations = new HashSet<>(g_operationQueue);
-        CSGOperationInfo lastOperation = g_operationQueue.getLast();
-        g_operationQueue.clear();
+        List<CSGOperationInfo> operations = new ArrayList<>();
+        CSGOperationInfo opInfo;
+        while ((opInfo = g_operationQueue.pollFirst()) != null) {
+            // a held mouse button queues the same operation again and again, repeating it changes nothing
+            if (operations.isEmpty() || !operations.get(operations.size() - 1).equals(opInfo)) {
+                operations.add(opInfo);
+            }
+        }
         if (operations.isEmpty()) {
             return;
         }
 
         Set<ChunkNode> touchedNodes = new HashSet<>();
-        for (CSGOperationInfo opInfo: operations){
-            touchedNodes.addAll(findNodesInsideAABB(calcCSGOperationBounds(opInfo)));
+        for (CSGOperationInfo operation : operations){
+            touchedNodes.addAll(findNodesInsideAABB(calcCSGOperationBounds(operation)));
         }
-        CSGReduceOperations(touchedNodes, lastOperation);
+        CSGReduceOperations(touchedNodes, operations);
     }
 
-    private void CSGReduceOperations(Set<ChunkNode> touchedNodes, CSGOperationInfo lastOperation){
+    private void CSGReduceOperations(Set<ChunkNode> touchedNodes, List<CSGOperationInfo> operations){
         List<ChunkNode> nodes = new ArrayList<>(touchedNodes);
         nodes.sort(Comparator.comparingInt((ChunkNode lhs) -> lhs.size));
         int activeNodeNumber = 0;
@@ -83,7 +89,7 @@ public class CSGOperationsProcessor {
         }
         List<ChunkNode> subList = nodes.subList(0, activeNodeNumber+1);
         for(ChunkNode node : subList) {
-            voxelOctree.computeApplyCSGOperations(lastOperation, node);
+            voxelOctree.computeApplyCSGOperations(operations, node);
         }
     }
 
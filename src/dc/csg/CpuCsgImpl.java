@@ -9,7 +9,6 @@ import dc.VoxelOctree;
 import dc.entities.CSGOperationInfo;
 import dc.impl.CPUDensityField;
 import dc.impl.MeshGenerationContext;
-import dc.utils.SimplexNoise;
 import dc.utils.VoxelHelperUtils;
 
 import java.util.*;
@@ -18,6 +17,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -28,6 +28,7 @@ public class CpuCsgImpl implements ICSGOperations {
     private MeshGenerationContext meshGen;
     private final ExecutorService service;
     private final int availableProcessors;
+    private final int[][] updatedPointsScratch;
     private final Map<Long, ChunkNode> mortonCodesChunksMap;
 
     public CpuCsgImpl(Map<Long, ChunkNode> chunks) {
@@ -42,16 +43,16 @@ public class CpuCsgImpl implements ICSGOperations {
                 return thread;
             }
         });
+        updatedPointsScratch = new int[availableProcessors][];
     }
 
     @Override
-    public void ApplyReduceOperations(ChunkNode node, CPUDensityField field, Map<Vec4i, CPUDensityField> densityFieldCache) {
+    public void ApplyReduceOperations(ChunkNode node, CPUDensityField field, Function<ChunkNode, CPUDensityField> childFields) {
         for (int i = 0; i < 8; i++) {
             long locCodeChild = (node.chunkCode<<3)|i;
             ChunkNode child = mortonCodesChunksMap.get(locCodeChild);
             if (child!=null && child.chunkCSGEdited) {
-                Vec4i key = new Vec4i(child.min, child.size);
-                CPUDensityField srcField = densityFieldCache.get(key);
+                CPUDensityField srcField = childFields.apply(child);
                 if (srcField != null) {
                     reduceMultiThread(i, srcField, field);
                     node.chunkCSGEdited = true;
@@ -137,99 +138,158 @@ public class CpuCsgImpl implements ICSGOperations {
         dstField.materials[dstMaterialIndex] = startpoint_material; // save changed material for use when next lod level reduce
     }
 
+    // brush of an operation and the box of field points it can change
+    private static final class FieldBrush {
+        final CSGOperationInfo operation;
+        final Brush brush;
+        final int minX, minY, minZ, maxX, maxY, maxZ;
+
+        FieldBrush(CSGOperationInfo operation, Brush brush, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.operation = operation;
+            this.brush = brush;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+    }
+
+    /*
+     All operations of a batch are applied in queue order in one sweep over the union of their boxes,
+     the hermite edges are found once for all points changed by the batch.
+     */
     @Override
-    public boolean ApplyCSGOperations(MeshGenerationContext meshGen, CSGOperationInfo lastOperation, ChunkNode node, CPUDensityField field){
+    public boolean ApplyCSGOperations(MeshGenerationContext meshGen, List<CSGOperationInfo> operations, ChunkNode node, CPUDensityField field){
         this.meshGen = meshGen;
 
         Vec4i fieldOffset = LeafScaleVec(node.min);
         int sampleScale = node.size / (meshGen.leafSizeScale * meshGen.getVoxelsPerChunk());
-        int fieldBufferSize = meshGen.fieldSize * meshGen.fieldSize * meshGen.fieldSize;
-        int[] d_updatedIndices = new int[fieldBufferSize];
-        Vec3i[] d_updatedPoints = new Vec3i[fieldBufferSize];
-
-        int numUpdatedPoints = CSG_HermiteIndicesMultiThread(fieldOffset, lastOperation, sampleScale, field.materials,
-                d_updatedIndices, d_updatedPoints);
-        if (numUpdatedPoints <= 0) {    // < 0 will be an error code
+        List<FieldBrush> brushes = new ArrayList<>(operations.size());
+        for (CSGOperationInfo operation : operations) {
+            FieldBrush brush = createFieldBrush(operation, fieldOffset, sampleScale);
+            if (brush != null) {
+                brushes.add(brush);
+            }
+        }
+        if (brushes.isEmpty()) {
+            return false;
+        }
+        Vec3i[] d_compactUpdatedPoints = CSG_UpdatedPointsMultiThread(fieldOffset, brushes, sampleScale, field.materials);
+        int numUpdatedPoints = d_compactUpdatedPoints.length;
+        if (numUpdatedPoints == 0) {
             return false;
         }
-
-        Vec3i[] d_compactUpdatedPoints = new Vec3i[numUpdatedPoints];
-        compactElements(d_updatedIndices, d_updatedPoints, d_compactUpdatedPoints);
 
         int[] d_generatedEdgeIndices = new int [numUpdatedPoints * 6];
         int numCompactEdgeIndices = FindUpdatedEdgesMultiThread(d_compactUpdatedPoints, d_generatedEdgeIndices);
 
         Set<Integer> d_invalidatedEdges = CompactIndexArray(d_generatedEdgeIndices, numCompactEdgeIndices);
-        Map<Integer, Vec4f> createdEdgesHermiteData = findEdgeIntersections(fieldOffset, lastOperation, sampleScale, d_invalidatedEdges, field.materials);
+        Map<Integer, Vec4f> createdEdgesHermiteData = findEdgeIntersections(fieldOffset, brushes, sampleScale, d_invalidatedEdges, field.materials);
 
-        if (d_invalidatedEdges.size() > 0 && field.hermiteEdges.size() > 0) {
-            field.hermiteEdges.keySet().removeAll(d_invalidatedEdges);
+        for (int invalidatedEdge : d_invalidatedEdges) {
+            field.hermiteEdges.remove(invalidatedEdge);
         }
-
-        if (createdEdgesHermiteData.size() > 0) {
-            if (field.hermiteEdges.size() > 0) {
-                field.hermiteEdges.putAll(createdEdgesHermiteData);
-            } else {
-                field.hermiteEdges = createdEdgesHermiteData;
-            }
+        for (Map.Entry<Integer, Vec4f> createdEdge : createdEdgesHermiteData.entrySet()) {
+            field.hermiteEdges.put(createdEdge.getKey(), createdEdge.getValue());
         }
         return true;
     }
 
-    private int CSG_HermiteIndicesMultiThread(Vec4i worldspaceOffset, CSGOperationInfo lastOperation, int sampleScale, int[] field_materials,
-                                   int[] updated_indices, Vec3i[] updated_positions){
-        int bound = meshGen.getFieldSize();
-        int threadBound = (bound * bound * bound) / availableProcessors;
+    // null if the brush does not reach the field
+    private FieldBrush createFieldBrush(CSGOperationInfo operation, Vec4i worldspaceOffset, int sampleScale) {
+        Brush brush = Brush.create(operation);
+        Vec3f brushMin = brush.getMin(), brushMax = brush.getMax();
+        int minX = fieldBound(brushMin.X - worldspaceOffset.x, sampleScale, false);
+        int minY = fieldBound(brushMin.Y - worldspaceOffset.y, sampleScale, false);
+        int minZ = fieldBound(brushMin.Z - worldspaceOffset.z, sampleScale, false);
+        int maxX = fieldBound(brushMax.X - worldspaceOffset.x, sampleScale, true);
+        int maxY = fieldBound(brushMax.Y - worldspaceOffset.y, sampleScale, true);
+        int maxZ = fieldBound(brushMax.Z - worldspaceOffset.z, sampleScale, true);
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            return null;
+        }
+        return new FieldBrush(operation, brush, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    // first (or last) field point index at or after (before) the local position, clamped to the field
+    private int fieldBound(float localPos, int sampleScale, boolean upper) {
+        double index = upper ? Math.floor(localPos / sampleScale) + 1 : Math.ceil(localPos / sampleScale) - 1;  // one point of slack
+        if (index < 0) {
+            return upper ? -1 : 0;
+        }
+        return (int) Math.min(meshGen.getFieldSize() - (upper ? 1 : 0), index);
+    }
+
+    /*
+     Only the field points inside the brush boxes can change, the z slabs of their union are split between the threads.
+     Every task collects the updated points packed as x | y << 8 | z << 16 into its own scratch array,
+     which is kept for the next batch.
+     */
+    private Vec3i[] CSG_UpdatedPointsMultiThread(Vec4i worldspaceOffset, List<FieldBrush> brushes, int sampleScale,
+                                                 int[] field_materials) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        for (FieldBrush brush : brushes) {
+            minX = Math.min(minX, brush.minX); maxX = Math.max(maxX, brush.maxX);
+            minY = Math.min(minY, brush.minY); maxY = Math.max(maxY, brush.maxY);
+            minZ = Math.min(minZ, brush.minZ); maxZ = Math.max(maxZ, brush.maxZ);
+        }
+        int fromX = minX, toX = maxX, fromY = minY, toY = maxY;
+
+        int slabs = maxZ - minZ + 1;
+        int taskCount = Math.min(availableProcessors, slabs);
+        int[] counts = new int[taskCount];
         List<Callable<Integer>> tasks = new ArrayList<>();
-        for (int i = 0; i < availableProcessors; i++) {
-            int finalI = i;
+        for (int i = 0; i < taskCount; i++) {
+            int task = i;
+            int fromZ = minZ + i * slabs / taskCount;
+            int toZ = minZ + (i + 1) * slabs / taskCount;
+            int capacity = (toZ - fromZ) * (toY - fromY + 1) * (toX - fromX + 1);
+            if (updatedPointsScratch[task] == null || updatedPointsScratch[task].length < capacity) {
+                updatedPointsScratch[task] = new int[capacity];
+            }
+            int[] updated = updatedPointsScratch[task];
             tasks.add(() -> {
-                int from = finalI * threadBound;
-                int to = from + threadBound;
                 int size = 0;
-                for (int it = from; it < to; it++) {
-                    int x = it % bound;
-                    int y = (it / bound) % bound;
-                    int z = (it / bound / bound);
-                    size = processMaterials(worldspaceOffset, lastOperation, sampleScale, field_materials, updated_indices, updated_positions, size, z, y, x);
+                for (int z = fromZ; z < toZ; z++) {
+                    for (int y = fromY; y <= toY; y++) {
+                        for (int x = fromX; x <= toX; x++) {
+                            int index = meshGen.getMaterialIndex(x, y, z);
+                            int material = field_materials[index];
+                            for (FieldBrush brush : brushes) {
+                                if (brush.contains(x, y, z)) {
+                                    material = BrushMaterial(worldspaceOffset.x + sampleScale * x, worldspaceOffset.y + sampleScale * y,
+                                            worldspaceOffset.z + sampleScale * z, brush.operation, brush.brush, material);
+                                }
+                            }
+                            if (material != field_materials[index]) {
+                                field_materials[index] = material;
+                                updated[size++] = x | (y << 8) | (z << 16);
+                            }
+                        }
+                    }
                 }
+                counts[task] = size;
                 return size;
             });
         }
-        return VoxelOctree.performIntCallableTask(tasks, service, logger);
-    }
+        int numUpdatedPoints = VoxelOctree.performIntCallableTask(tasks, service, logger);
 
-    private int processMaterials(Vec4i worldspaceOffset, CSGOperationInfo lastOperation, int sampleScale, int[] field_materials, int[] updated_indices, Vec3i[] updated_positions, int size, int z, int y, int x) {
-        Vec3i local_pos = new Vec3i(x, y, z);
-        int sx = sampleScale * x;
-        int sy = sampleScale * y;
-        int sz = sampleScale * z;
-
-        int index = meshGen.getMaterialIndex(local_pos);
-        int oldMaterial = field_materials[index];
-        int material = field_materials[index];
-
-        Vec3f world_pos = new Vec3f(worldspaceOffset.x + sx, worldspaceOffset.y + sy, worldspaceOffset.z + sz);
-        material = BrushMaterial(world_pos, lastOperation, material);
-
-        int updated = material != oldMaterial ? 1 : 0;
-        if(updated==1){
-            field_materials[index] = material;
-            size++;
-        }
-        updated_indices[index] = updated;
-        updated_positions[index] = local_pos;
-        return size;
-    }
-
-    private void compactElements(int[] edgeValid,  Vec3i[] edgeNormals,
-                                 Vec3i[] compactNormals) {
-        int cid = 0;
-        for (int index = 0; index<edgeValid.length; index++) {
-            if (edgeValid[index]==1) {
-                compactNormals[cid++] = edgeNormals[index];
+        Vec3i[] updatedPoints = new Vec3i[numUpdatedPoints];
+        int current = 0;
+        for (int task = 0; task < taskCount; task++) {
+            int[] updated = updatedPointsScratch[task];
+            for (int i = 0; i < counts[task]; i++) {
+                updatedPoints[current++] = new Vec3i(updated[i] & 0xFF, (updated[i] >> 8) & 0xFF, updated[i] >> 16);
             }
         }
+        return updatedPoints;
     }
 
     private int FindUpdatedEdgesMultiThread(Vec3i[] updatedHermiteIndices,
@@ -305,7 +365,7 @@ public class CpuCsgImpl implements ICSGOperations {
         return Arrays.stream(compactIndices).boxed().collect(Collectors.toSet());
     }
 
-    private Map<Integer, Vec4f> findEdgeIntersections(Vec4i offset, CSGOperationInfo lastOperation, int sampleScale,
+    private Map<Integer, Vec4f> findEdgeIntersections(Vec4i offset, List<FieldBrush> brushes, int sampleScale,
                                                       Set<Integer> generatedHermiteEdgeIndices, int[] materials) {
         Map<Integer, Vec4f> hermiteData = new HashMap<>();
         int FIELD_BUFFER_SIZE = meshGen.getFieldSize() * meshGen.getFieldSize() * meshGen.getFieldSize();
@@ -331,25 +391,43 @@ public class CpuCsgImpl implements ICSGOperations {
 
             int edgeValid = signChange==1 && generatedEdgeIndex != -1 ? 1 : 0;
             if (edgeValid == 1) {
-                hermiteData.put(generatedEdgeIndex, calculateNorm(lastOperation, offset, sampleScale, edgeNumber * 4, position));
+                hermiteData.put(generatedEdgeIndex, calculateNorm(brushes, offset, sampleScale, edgeNumber * 4, position));
             }
         }
         return hermiteData;
     }
 
-    private Vec4f calculateNorm(CSGOperationInfo lastOperation, Vec4i offset, int sampleScale, int edgeIndex, Vec3i local_pos){
+    // the surface of an edge belongs to the last brush of the batch whose sign changes along it
+    private Vec4f calculateNorm(List<FieldBrush> brushes, Vec4i offset, int sampleScale, int edgeIndex, Vec3i local_pos){
         int e0 = VoxelOctree.edgevmap[edgeIndex][0];
         int e1 = VoxelOctree.edgevmap[edgeIndex][1];
 
         Vec3i world_pos = (local_pos.mul(sampleScale)).add(offset);
-        Vec4f p0 = world_pos.add(VoxelOctree.CHILD_MIN_OFFSETS[e0]).toVec4f();
-        Vec4f p1 = world_pos.add(VoxelOctree.CHILD_MIN_OFFSETS[e1].mul(sampleScale)).toVec4f();
-
-        float t = BrushZeroCrossing(p0, p1, lastOperation);
-        Vec3f p = VoxelHelperUtils.mix(p0, p1, t).getVec3f();
+        Vec3f p0 = world_pos.add(VoxelOctree.CHILD_MIN_OFFSETS[e0]).toVec3f();
+        Vec3f p1 = world_pos.add(VoxelOctree.CHILD_MIN_OFFSETS[e1].mul(sampleScale)).toVec3f();
+
+        Vec3i end_pos = local_pos.add(VoxelOctree.EDGE_END_OFFSETS[edgeIndex / 4]);
+        FieldBrush surfaceBrush = null;
+        for (int i = brushes.size() - 1; i >= 0; i--) {
+            FieldBrush brush = brushes.get(i);
+            if ((brush.brush.density(p0.X, p0.Y, p0.Z) <= 0.f) != (brush.brush.density(p1.X, p1.Y, p1.Z) <= 0.f)) {
+                surfaceBrush = brush;
+                break;
+            }
+            // else the sign change is not made by a brush, the last brush which could change an end of the edge
+            if (surfaceBrush == null && (brush.contains(local_pos.x, local_pos.y, local_pos.z)
+                    || brush.contains(end_pos.x, end_pos.y, end_pos.z))) {
+                surfaceBrush = brush;
+            }
+        }
+        if (surfaceBrush == null) {
+            surfaceBrush = brushes.get(brushes.size() - 1);
+        }
+        float t = surfaceBrush.brush.zeroCrossing(p0, p1);
+        Vec3f p = VoxelHelperUtils.mix(p0, p1, t);
 
-        Vec3f n = BrushNormal(p, lastOperation);
-        return new Vec4f(n, t);
+        float flip = surfaceBrush.operation.getType() == 0 ? 1.f : -1.f;
+        return new Vec4f(surfaceBrush.brush.normal(p).mul(flip), t);
     }
 
     private Vec4i LeafScaleVec(Vec3i v) {
@@ -361,59 +439,13 @@ public class CpuCsgImpl implements ICSGOperations {
         return s;
     }
 
-    float BrushDensity(Vec3f worldspaceOffset, CSGOperationInfo lastOperation) {
-        float [] brushDensity = {Float.MIN_VALUE, Float.MAX_VALUE};
-        //brushDensity[0] = Density_Cuboid(worldspaceOffset, op.getOrigin(), op.getDimensions(), op.getRotateY());
-        brushDensity[0] = SimplexNoise.Density_Cuboid(worldspaceOffset, lastOperation.getOrigin().getVec3f(), lastOperation.getDimensions().getVec3f());
-        brushDensity[1] = SimplexNoise.Density_Sphere(worldspaceOffset, lastOperation.getOrigin().getVec3f(), lastOperation.getDimensions().x);
-        return brushDensity[lastOperation.getBrushShape().ordinal()];
-    }
-
-    // "concatenate" the brush operations to get the final density for the brush in isolation
-    private float BrushZeroCrossing(Vec4f p0, Vec4f p1, CSGOperationInfo lastOperation) {
-        float minDensity = Float.MAX_VALUE;
-        float crossing = 0.f;
-        for (float t = 0.f; t <= 1.f; t += (1.f/16.f)) {
-		    Vec3f p = VoxelHelperUtils.mix(p0, p1, t).getVec3f();
-            float d = Math.abs(BrushDensity(p, lastOperation));
-            if (d < minDensity) {
-                crossing = t;
-                minDensity = d;
-            }
-        }
-        return crossing;
-    }
-
-    private int BrushMaterial(Vec3f world_pos, CSGOperationInfo lastOperation, int material) {
+    private int BrushMaterial(float x, float y, float z, CSGOperationInfo lastOperation, Brush brush, int material) {
         int m = material;
         int[] operationMaterial = {lastOperation.getMaterial(), meshGen.MATERIAL_AIR};
-        float d = BrushDensity(world_pos, lastOperation);
+        float d = brush.density(x, y, z);
         if (d <= 0.f) {
             m = operationMaterial[lastOperation.getType()];
         }
         return m;
     }
-
-    private Vec3f BrushNormal(Vec3f p, CSGOperationInfo lastOperation) {
-		    //float d = BrushDensity(p, op);
-            //if (d > 0.f) continue;
-
-		    float h = 0.001f;
-            Vec3f xOffcet = new Vec3f(h, 0.f, 0.f);
-            Vec3f yOffcet = new Vec3f(0.f, h, 0.f);
-            Vec3f zOffcet = new Vec3f(0.f, 0.f, h);
-		    float dx0 = BrushDensity(p.add(xOffcet), lastOperation);
-		    float dx1 = BrushDensity(p.sub(xOffcet), lastOperation);
-
-		    float dy0 = BrushDensity(p.add(yOffcet), lastOperation);
-		    float dy1 = BrushDensity(p.sub(yOffcet), lastOperation);
-
-		    float dz0 = BrushDensity(p.add(zOffcet), lastOperation);
-		    float dz1 = BrushDensity(p.sub(zOffcet), lastOperation);
-
-            float flip = lastOperation.getType() == 0 ? 1.f : -1.f;
-            Vec3f normal = new Vec3f(dx0 - dx1, dy0 - dy1, dz0 - dz1).normalize().mul(flip);
-
-        return normal;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package dc.csg;
+
+import core.math.Vec3f;
+
+/*
+ Axis aligned box brush, same density as SimplexNoise.Density_Cuboid. The crossing is found with the slab test,
+ the normal is the axis of the nearest face (the sum of the axes on an edge or a corner of the box).
+ */
+public class CuboidBrush implements Brush {
+    private static final float FACE_EPSILON = 0.001f;
+    private final float[] origin;
+    private final float[] halfDimensions;
+
+    public CuboidBrush(Vec3f origin, Vec3f halfDimensions) {
+        this.origin = new float[]{origin.X, origin.Y, origin.Z};
+        this.halfDimensions = new float[]{halfDimensions.X, halfDimensions.Y, halfDimensions.Z};
+    }
+
+    @Override
+    public float density(float x, float y, float z) {
+        float dx = Math.abs(x - origin[0]) - halfDimensions[0];
+        float dy = Math.abs(y - origin[1]) - halfDimensions[1];
+        float dz = Math.abs(z - origin[2]) - halfDimensions[2];
+        float m = Math.max(dx, Math.max(dy, dz));
+        float ox = Math.max(dx, 0.f), oy = Math.max(dy, 0.f), oz = Math.max(dz, 0.f);
+        return Math.min(m, (float) Math.sqrt(ox * ox + oy * oy + oz * oz));
+    }
+
+    @Override
+    public Vec3f getMin() {
+        return new Vec3f(origin[0] - halfDimensions[0], origin[1] - halfDimensions[1], origin[2] - halfDimensions[2]);
+    }
+
+    @Override
+    public Vec3f getMax() {
+        return new Vec3f(origin[0] + halfDimensions[0], origin[1] + halfDimensions[1], origin[2] + halfDimensions[2]);
+    }
+
+    @Override
+    public float zeroCrossing(Vec3f p0, Vec3f p1) {
+        boolean inside0 = density(p0.X, p0.Y, p0.Z) <= 0.f;
+        boolean inside1 = density(p1.X, p1.Y, p1.Z) <= 0.f;
+        if (inside0 == inside1) {
+            return Brush.super.zeroCrossing(p0, p1);    // the sign change of the edge is not made by this brush
+        }
+        float[] start = {p0.X, p0.Y, p0.Z};
+        float[] direction = {p1.X - p0.X, p1.Y - p0.Y, p1.Z - p0.Z};
+        double enter = 0., exit = 1.;
+        for (int axis = 0; axis < 3; axis++) {
+            if (direction[axis] == 0.f) {
+                continue;   // the segment lies in the slab of this axis, it has a sign change
+            }
+            double t0 = (origin[axis] - halfDimensions[axis] - start[axis]) / (double) direction[axis];
+            double t1 = (origin[axis] + halfDimensions[axis] - start[axis]) / (double) direction[axis];
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        return (float) (inside0 ? exit : enter);
+    }
+
+    @Override
+    public Vec3f normal(Vec3f p) {
+        float[] local = {p.X - origin[0], p.Y - origin[1], p.Z - origin[2]};
+        float[] d = new float[3];
+        for (int axis = 0; axis < 3; axis++) {
+            d[axis] = Math.abs(local[axis]) - halfDimensions[axis];
+        }
+        float m = Math.max(d[0], Math.max(d[1], d[2]));
+        float[] components = new float[3];
+        for (int axis = 0; axis < 3; axis++) {
+            if (d[axis] >= m - FACE_EPSILON) {
+                components[axis] = Math.signum(local[axis]);
+            }
+        }
+        Vec3f n = new Vec3f(components[0], components[1], components[2]);
+        if (n.lengthSquared() == 0.f) {
+            return new Vec3f(0.f, 1.f, 0.f);
+        }
+        return n.normalize();
+    }
+}
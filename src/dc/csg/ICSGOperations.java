@@ -1,14 +1,16 @@
 package dc.csg;
 
-import core.math.Vec4i;
 import dc.ChunkNode;
 import dc.entities.CSGOperationInfo;
 import dc.impl.CPUDensityField;
 import dc.impl.MeshGenerationContext;
 
-import java.util.Map;
+import java.util.List;
+import java.util.function.Function;
 
 public interface ICSGOperations {
-    boolean ApplyCSGOperations(MeshGenerationContext meshGen, CSGOperationInfo opInfo, ChunkNode node, CPUDensityField field);
-    void ApplyReduceOperations(ChunkNode node, CPUDensityField field, Map<Vec4i, CPUDensityField> densityFieldCache);
+    // applies the operations in order, returns true if a material of the field changed
+    boolean ApplyCSGOperations(MeshGenerationContext meshGen, List<CSGOperationInfo> operations, ChunkNode node, CPUDensityField field);
+    // childFields returns the density field of an edited child chunk, or null if it is not available
+    void ApplyReduceOperations(ChunkNode node, CPUDensityField field, Function<ChunkNode, CPUDensityField> childFields);
 }
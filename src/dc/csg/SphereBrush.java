@@ -0,0 +1,63 @@
+package dc.csg;
+
+import core.math.Vec3f;
+
+/*
+ Sphere brush, same density as SimplexNoise.Density_Sphere. The crossing is the root of the segment - sphere
+ quadratic, the normal the direction from the centre.
+ */
+public class SphereBrush implements Brush {
+    private final float originX, originY, originZ;
+    private final float radius;
+
+    public SphereBrush(Vec3f origin, float radius) {
+        this.originX = origin.X;
+        this.originY = origin.Y;
+        this.originZ = origin.Z;
+        this.radius = radius;
+    }
+
+    @Override
+    public float density(float x, float y, float z) {
+        float dx = x - originX, dy = y - originY, dz = z - originZ;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz) - radius;
+    }
+
+    @Override
+    public Vec3f getMin() {
+        return new Vec3f(originX - radius, originY - radius, originZ - radius);
+    }
+
+    @Override
+    public Vec3f getMax() {
+        return new Vec3f(originX + radius, originY + radius, originZ + radius);
+    }
+
+    @Override
+    public float zeroCrossing(Vec3f p0, Vec3f p1) {
+        boolean inside0 = density(p0.X, p0.Y, p0.Z) <= 0.f;
+        boolean inside1 = density(p1.X, p1.Y, p1.Z) <= 0.f;
+        if (inside0 == inside1) {
+            return Brush.super.zeroCrossing(p0, p1);    // the sign change of the edge is not made by this brush
+        }
+        // |p0 + t * d - origin|^2 = radius^2
+        double dx = p1.X - p0.X, dy = p1.Y - p0.Y, dz = p1.Z - p0.Z;
+        double ox = p0.X - originX, oy = p0.Y - originY, oz = p0.Z - originZ;
+        double a = dx * dx + dy * dy + dz * dz;
+        double b = ox * dx + oy * dy + oz * dz;
+        double c = ox * ox + oy * oy + oz * oz - (double) radius * radius;
+        double root = Math.sqrt(Math.max(0., b * b - a * c));
+        // leaving the sphere is the far root, entering it the near one
+        double t = inside0 ? (-b + root) / a : (-b - root) / a;
+        return (float) Math.min(1., Math.max(0., t));
+    }
+
+    @Override
+    public Vec3f normal(Vec3f p) {
+        Vec3f n = new Vec3f(p.X - originX, p.Y - originY, p.Z - originZ);
+        if (n.lengthSquared() == 0.f) {
+            return new Vec3f(0.f, 1.f, 0.f);
+        }
+        return n.normalize();
+    }
+}
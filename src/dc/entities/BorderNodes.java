@@ -0,0 +1,36 @@
+package dc.entities;
+
+import core.math.Vec3f;
+import core.math.Vec3i;
+import core.utils.Constants;
+
+/*
+ Leaf nodes on the faces of a chunk, the input of the seam meshes, as a struct of arrays. All of them have the leaf
+ size of the chunk, the min of node i is chunkMin + positionForCode(codes[i]) * leafSize.
+ */
+public class BorderNodes {
+    public final Vec3i chunkMin;
+    public final int leafSize;
+    public final int size;
+    public final int[] codes;
+    public final int[] corners;
+    public final float[] positions;     // x, y, z of the vertex of every node
+    public final float[] normals;
+    private final Vec3f color;
+
+    public BorderNodes(Vec3i chunkMin, int leafSize, Vec3f color, int size) {
+        this.chunkMin = chunkMin;
+        this.leafSize = leafSize;
+        this.color = color;
+        this.size = size;
+        this.codes = new int[size];
+        this.corners = new int[size];
+        this.positions = new float[size * 3];
+        this.normals = new float[size * 3];
+    }
+
+    // nodes completely inside or outside the volume only close holes in the seam, they are drawn white
+    public Vec3f getColor(int i) {
+        return corners[i] == 0 || corners[i] == 255 ? Constants.White : color;
+    }
+}
@@ -0,0 +1,114 @@
+package dc.impl;
+
+import core.math.Vec3i;
+import dc.VoxelOctree;
+
+/*
+ Voxel classification pass of LevenLinearCPUOctreeImpl (FindActiveVoxels). For every voxel of the chunk
+ it records the corner sign mask, the active edge mask, the morton code and the dominant corner material.
+ Corner and edge lookups use offsets into CPUDensityField.materials and the HermiteEdgeStore arrays that are
+ precomputed once per mesh context, so the loop does not allocate per voxel.
+ */
+public class ActiveVoxelClassifier {
+    private static final int MATERIAL_NONE = 200;
+    private static final int MATERIAL_UNSET = 201;     // "MATERIAL_AIR" of AbstractDualContouring.findDominantMaterial
+
+    private final MeshGenerationContext meshGen;
+    private final int voxelsShift;
+    private final int voxelsMask;
+    private final int[] cornerOffsets = new int[8];
+    private final int[] edgeOffsets = new int[12];
+
+    public ActiveVoxelClassifier(MeshGenerationContext meshGen) {
+        this.meshGen = meshGen;
+        this.voxelsShift = Integer.numberOfTrailingZeros(meshGen.getVoxelsPerChunk());
+        this.voxelsMask = meshGen.getVoxelsPerChunk() - 1;
+        for (int i = 0; i < 8; i++) {
+            Vec3i offset = VoxelOctree.CHILD_MIN_OFFSETS[i];
+            cornerOffsets[i] = meshGen.getMaterialIndex(offset.x, offset.y, offset.z);
+        }
+        for (int i = 0; i < 12; i++) {
+            Vec3i offset = VoxelOctree.CHILD_MIN_OFFSETS[VoxelOctree.edgevmap[i][0]];
+            edgeOffsets[i] = meshGen.getHermiteIndex(offset.x, offset.y, offset.z) + i / 4;
+        }
+    }
+
+    // classifies voxels [from, to) of the chunk, returns the number of active voxels in the range
+    public int classify(int from, int to, CPUDensityField field,
+                        int[] voxelOccupancy, int[] voxelEdgeInfo, int[] voxelPositions, int[] voxelMaterials) {
+        int[] materials = field.materials;
+        HermiteEdgeStore edges = field.hermiteEdges;
+        int[] cornerMaterials = new int[8];
+        int size = 0;
+        for (int index = from; index < to; index++) {
+            int x = index & voxelsMask;
+            int y = (index >> voxelsShift) & voxelsMask;
+            int z = (index >> (voxelsShift * 2)) & voxelsMask;
+
+            // record the on/off values at the corner of each voxel
+            int materialBase = meshGen.getMaterialIndex(x, y, z);
+            int cornerValues = 0;
+            for (int i = 0; i < 8; i++) {
+                int material = materials[materialBase + cornerOffsets[i]];
+                cornerMaterials[i] = material;
+                cornerValues |= (material == meshGen.MATERIAL_AIR ? 0 : 1) << i;
+            }
+
+            // record which of the 12 voxel edges are on/off
+            int hermiteBase = meshGen.getHermiteIndex(x, y, z);
+            int edgeList = 0;
+            for (int i = 0; i < 12; i++) {
+                if (edges.has(hermiteBase + edgeOffsets[i])) {
+                    edgeList |= (1 << i);
+                }
+            }
+            if (edgeList != 0) {
+                ++size;
+            }
+            voxelOccupancy[index] = edgeList != 0 ? 1 : 0;
+            voxelPositions[index] = meshGen.codeForPosition(x, y, z);
+            voxelEdgeInfo[index] = edgeList;
+
+            // store cornerValues here too as its needed by the CPU side and edgeInfo isn't exported
+            voxelMaterials[index] = (findDominantMaterial(cornerMaterials) << 8) | cornerValues;
+        }
+        return size;
+    }
+
+    // same as AbstractDualContouring.findDominantMaterial, but sorts the passed corner array in place
+    private static int findDominantMaterial(int[] data) {
+        for (int i = 1; i < 8; i++) {
+            int tmp = data[i];
+            int j;
+            for (j = i; j >= 1 && tmp < data[j - 1]; j--) {
+                data[j] = data[j - 1];
+            }
+            data[j] = tmp;
+        }
+
+        int current = data[0];
+        int count = 1;
+        int maxCount = 0;
+        int maxMaterial = 0;
+        for (int i = 1; i < 8; i++) {
+            int m = data[i];
+            if (m == MATERIAL_UNSET || m == MATERIAL_NONE) {
+                continue;
+            }
+            if (current != m) {
+                if (count > maxCount) {
+                    maxCount = count;
+                    maxMaterial = current;
+                }
+                current = m;
+                count = 1;
+            } else {
+                count++;
+            }
+        }
+        if (count > maxCount) {
+            maxMaterial = current;
+        }
+        return maxMaterial;
+    }
+}
@@ -1,14 +1,16 @@
 package dc.impl;
 
 import core.math.Vec3i;
-import core.math.Vec4f;
-
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
 
 public class CPUDensityField {
     public Vec3i min;
     public int size;
     public int[] materials;
-    public Map<Integer, Vec4f> hermiteEdges = new ConcurrentSkipListMap<>();
+    public HermiteEdgeStore hermiteEdges;
+    public boolean csgEdited = false;   // edited fields can not be generated again, they stay in the density field cache
+    public volatile boolean persisted = false;  // the field is in the DensityFieldStore, it can be evicted from the cache
+
+    public long getSizeInBytes() {
+        return (materials != null ? materials.length * 4L : 0) + (hermiteEdges != null ? hermiteEdges.getSizeInBytes() : 0);
+    }
 }
@@ -0,0 +1,7 @@
+package dc.impl;
+
+// build state of one chunk between the stages of LevenLinearCPUOctreeImpl
+public class CpuChunkBuild {
+    public CPUDensityField field;
+    public CpuOctree octree;
+}
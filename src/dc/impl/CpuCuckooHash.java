@@ -0,0 +1,172 @@
+package dc.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ CPU port of the cuckoo hash from res/opencl/cuckoo.cl (see CuckooHashOpenCLService).
+ Maps an octree node code to its index in the compacted node arrays. Entries are packed into a long
+ (value << 32 | key) so a lookup touches at most CUCKOO_STASH_HASH_INDEX table slots plus one stash slot.
+ The table is filled once by insertKeys and is read-only afterwards, so meshing workers can query it concurrently.
+ */
+public class CpuCuckooHash {
+    private static final long LARGEST_32BIT_PRIME = 4294967291L;
+    private static final int MIN_TABLE_SIZE = 2048;
+    private static final int MAX_REBUILDS = 32;
+
+    private final MeshGenerationContext meshGen;
+    private final int prime;
+    private final long[] table;
+    private final long[] stash;
+    private final int[] hashParams;
+    private boolean stashUsed = false;
+    private int insertedKeys = 0;
+
+    public CpuCuckooHash(MeshGenerationContext meshGen, int tableSize) {
+        this.meshGen = meshGen;
+        this.prime = findNextPrime(Math.max(MIN_TABLE_SIZE, tableSize * 2));
+        this.table = new long[prime];
+        this.stash = new long[meshGen.CUCKOO_STASH_SIZE];
+        this.hashParams = new int[meshGen.CUCKOO_HASH_FN_COUNT * 2];
+        initHashValues();
+    }
+
+    public int getInsertedKeys() {
+        return insertedKeys;
+    }
+
+    public long getSizeInBytes() {
+        return (table.length + stash.length) * 8L;
+    }
+
+    // value of each key is its position in the keys array, same as Cuckoo_InsertKeys
+    public void insertKeys(int[] keys, int count) {
+        int numRetries = 0;
+        while (!tryInsertKeys(keys, count)) {
+            if (++numRetries > MAX_REBUILDS) {
+                throw new IllegalStateException("Cuckoo: insert keys failed after " + MAX_REBUILDS + " retries");
+            }
+            initHashValues();
+            Arrays.fill(table, meshGen.CUCKOO_EMPTY_VALUE);
+            Arrays.fill(stash, meshGen.CUCKOO_EMPTY_VALUE);
+            stashUsed = false;
+        }
+        insertedKeys = count;
+    }
+
+    public int find(int key) {
+        for (int i = 0; i < meshGen.CUCKOO_STASH_HASH_INDEX; i++) {
+            long entry = table[hash(i, key)];
+            if (getKey(entry) == key) {
+                return getValue(entry);
+            }
+        }
+        if (stashUsed) {
+            long entry = stash[hash(meshGen.CUCKOO_STASH_HASH_INDEX, key)];
+            if (getKey(entry) == key) {
+                return getValue(entry);
+            }
+        }
+        return -1;
+    }
+
+    private boolean tryInsertKeys(int[] keys, int count) {
+        for (int index = 0; index < count; index++) {
+            int key = keys[index];
+            long entry = createEntry(key, index);
+            int h = hash(0, key);
+            for (int i = 0; i < meshGen.CUCKOO_MAX_ITERATIONS; i++) {
+                long evicted = table[h];
+                table[h] = entry;
+                entry = evicted;
+                if (entry == meshGen.CUCKOO_EMPTY_VALUE) {
+                    break;
+                }
+
+                key = getKey(entry);
+                int h0 = hash(0, key);
+                int h1 = hash(1, key);
+                int h2 = hash(2, key);
+                int h3 = hash(3, key);
+
+                     if (h == h0) { h = h1; }
+                else if (h == h1) { h = h2; }
+                else if (h == h2) { h = h3; }
+                else if (h == h3) { h = h0; }
+            }
+
+            if (entry != meshGen.CUCKOO_EMPTY_VALUE) {
+                int s = hash(meshGen.CUCKOO_STASH_HASH_INDEX, getKey(entry));
+                if (stash[s] != meshGen.CUCKOO_EMPTY_VALUE) {
+                    return false;
+                }
+                stash[s] = entry;
+                stashUsed = true;
+            }
+        }
+        return true;
+    }
+
+    private int hash(int whichHash, int key) {
+        long a = hashParams[whichHash * 2] & 0xffffffffL;
+        long b = hashParams[whichHash * 2 + 1] & 0xffffffffL;
+        long h = (a * (key & 0xffffffffL)) & 0xffffffffL;     // uint multiply as in Cuckoo_Hash
+        int mod = whichHash < meshGen.CUCKOO_STASH_HASH_INDEX ? prime : meshGen.CUCKOO_STASH_SIZE;
+        return (int) (((h + b) % LARGEST_32BIT_PRIME) % mod);
+    }
+
+    private static long createEntry(int key, int value) {
+        return ((long) value << 32) | (key & 0xffffffffL);
+    }
+
+    private static int getKey(long entry) {
+        return (int) entry;
+    }
+
+    private static int getValue(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private void initHashValues() {
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        for (int i = 0; i < meshGen.CUCKOO_HASH_FN_COUNT; i++) {
+            hashParams[i * 2 + 0] = rnd.nextInt(1 << 15, 1 << 30);
+            hashParams[i * 2 + 1] = rnd.nextInt(1 << 15, 1 << 30);
+        }
+    }
+
+    private static boolean isPrime(int x) {
+        int o = 4;
+        int i = 5;
+        while (true) {
+            int q = x / i;
+            if (q < i) {
+                return true;
+            }
+            if (x == (q * i)) {
+                return false;
+            }
+            o ^= 6;
+            i += o;
+        }
+    }
+
+    // see http://stackoverflow.com/questions/4475996/given-prime-number-n-compute-the-next-prime
+    private static int findNextPrime(int n) {
+        if (n <= 2) {
+            return 2;
+        } else if (n == 3) {
+            return 3;
+        } else if (n <= 5) {
+            return 5;
+        }
+        int k = n / 6;
+        int i = n - (6 * k);
+        int o = i < 2 ? 1 : 5;
+        int x = (6 * k) + o;
+        for (i = (3 + o) / 2; !isPrime(x); x += i) {
+            i ^= 6;
+        }
+        return x;
+    }
+}
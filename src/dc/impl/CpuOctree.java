@@ -1,14 +1,16 @@
 package dc.impl;
 
-import core.math.Vec4f;
-
-import java.util.Map;
-
 public class CpuOctree {
     public int numNodes = 0;
     public int[] nodeCodes;
     public int[] nodeMaterials;
-    public Vec4f[] vertexPositions;
-    public Vec4f[] vertexNormals;
-    public Map<Integer, Integer> octreeNodes;
+    public float[] vertexPositions;     // xyz per node
+    public float[] vertexNormals;       // xyz per node
+    public CpuCuckooHash octreeNodes;
+
+    public long getSizeInBytes() {
+        long size = (nodeCodes != null ? nodeCodes.length * 4L : 0) + (nodeMaterials != null ? nodeMaterials.length * 4L : 0);
+        size += (vertexPositions != null ? vertexPositions.length * 4L : 0) + (vertexNormals != null ? vertexNormals.length * 4L : 0);
+        return size + (octreeNodes != null ? octreeNodes.getSizeInBytes() : 0);
+    }
 }
@@ -0,0 +1,108 @@
+package dc.impl;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ CPU counterpart of ScanOpenCLService: fork-join stream compaction over int flag arrays.
+ The input is split into blocks, every block is counted in parallel, the block sums are scanned serially
+ (there are only a few of them) and then every block writes its own part of the output in parallel.
+ */
+public final class CpuScanService {
+    private static final int BLOCK_SIZE = 4096;
+
+    public interface ElementMover {
+        void move(int srcIndex, int dstIndex);
+    }
+
+    private final ForkJoinPool pool;
+
+    public CpuScanService(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    // calls mover for every index with valid[index] == 1, passing its position in the compacted output
+    public int compact(int[] valid, int count, ElementMover mover) {
+        int numBlocks = numBlocks(count);
+        int[] blockOffsets = scanBlocks(numBlocks, block -> {
+            int sum = 0;
+            for (int i = blockStart(block); i < blockEnd(block, count); i++) {
+                if (valid[i] == 1) {
+                    ++sum;
+                }
+            }
+            return sum;
+        });
+        forEachBlock(numBlocks, block -> {
+            int current = blockOffsets[block];
+            for (int i = blockStart(block); i < blockEnd(block, count); i++) {
+                if (valid[i] == 1) {
+                    mover.move(i, current++);
+                }
+            }
+        });
+        return blockOffsets[numBlocks];
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private interface BlockSum {
+        int sum(int block);
+    }
+
+    private interface BlockAction {
+        void run(int block);
+    }
+
+    private int[] scanBlocks(int numBlocks, BlockSum blockSum) {
+        int[] blockOffsets = new int[numBlocks + 1];
+        forEachBlock(numBlocks, block -> blockOffsets[block + 1] = blockSum.sum(block));
+        for (int i = 1; i <= numBlocks; i++) {
+            blockOffsets[i] += blockOffsets[i - 1];
+        }
+        return blockOffsets;
+    }
+
+    private void forEachBlock(int numBlocks, BlockAction action) {
+        if (numBlocks == 1) {
+            action.run(0);
+        } else if (numBlocks > 1) {
+            pool.invoke(new BlockTask(0, numBlocks, action));
+        }
+    }
+
+    private static int numBlocks(int count) {
+        return Math.max(1, (count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+    }
+
+    private static int blockStart(int block) {
+        return block * BLOCK_SIZE;
+    }
+
+    private static int blockEnd(int block, int count) {
+        return Math.min(count, (block + 1) * BLOCK_SIZE);
+    }
+
+    private static final class BlockTask extends RecursiveAction {
+        private final int from, to;
+        private final BlockAction action;
+
+        BlockTask(int from, int to, BlockAction action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.run(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BlockTask(from, mid, action), new BlockTask(mid, to, action));
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package dc.impl;
+
+import core.math.Vec3i;
+import dc.ChunkNode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/*
+ Persistent store of CPUDensityField's in region files, so a density field is generated once and then read back from disk
+ on the next launch (or after it was evicted from the density field cache).
+ A region file holds the 64 chunks with the same chunkCode >>> 6 (the grandchildren of one chunk), the slot of a chunk
+ is chunkCode & 63. File layout, little endian:
+   header: magic, version, voxelsPerChunk, fieldSize, worldSizeXZ, generator signature (long), padding
+   index:  64 x (record offset (long), record length (int), record crc32 (int)), offset 0 - not stored, -1 - empty chunk
+   records appended after the index: flags (int), materials (fieldSize^3 bytes or ints),
+           edge page count (int), occupancy words (long per page), 4 floats per set edge in index order
+ A region whose header does not match the current MeshGenerationContext / generator is discarded when the next chunk is
+ stored into it, the queries (isEmpty, contains, load) only read existing region files and never create or change them.
+ A stored again chunk (CSG edit) overwrites its record in place if the new one fits (or the record is the last one),
+ otherwise the new record goes into the first free gap between the records or is appended, and the space of the old
+ one becomes free. The free gaps are found again from the index when a region is opened, so a region file does not grow
+ beyond the space its records need at once. A record cut by a crash while it was overwritten fails the crc check and the
+ chunk is generated again. Records are read back through FileChannel.map under the read lock of the region.
+ store and storeEmpty serialize the record on the calling thread and queue it for one writer thread, so the disk is kept
+ off the build threads. Until it is written the queries answer from the queued record, CPUDensityField.persisted is set
+ once the last queued record of the field is written. The queue is bounded, a full queue blocks the stores.
+ */
+public class DensityFieldStore {
+    final public static Logger logger = Logger.getLogger(DensityFieldStore.class.getName());
+    private static final int MAGIC = 0x44435247;  // DCRG
+    private static final int VERSION = 1;
+    private static final int REGION_SHIFT = 6;
+    private static final int REGION_SLOTS = 1 << REGION_SHIFT;
+    private static final int HEADER_SIZE = 32;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final int DATA_START = HEADER_SIZE + REGION_SLOTS * INDEX_ENTRY_SIZE;
+    private static final long EMPTY_OFFSET = -1;
+    private static final int FLAG_INT_MATERIALS = 1;   // a material does not fit into a byte
+    private static final int FLAG_CSG_EDITED = 2;
+    private static final int WRITE_QUEUE_SIZE = 64;
+    private static final PendingRecord CLOSE = new PendingRecord(0, null, null);
+
+    private final MeshGenerationContext meshGen;
+    private final Path directory;
+    private final long generatorSignature;
+    private final Map<Long, Region> regions = new ConcurrentHashMap<>();
+    private final Set<Long> missingRegions = ConcurrentHashMap.newKeySet();   // no (valid) region file, nothing stored yet
+    private final Map<Long, PendingRecord> pendingRecords = new ConcurrentHashMap<>();  // latest queued record of a chunk
+    private final BlockingQueue<PendingRecord> writeQueue = new ArrayBlockingQueue<>(WRITE_QUEUE_SIZE);
+    private final Thread writer;
+    private volatile boolean closed = false;
+
+    private static final class PendingRecord {
+        private final long chunkCode;
+        private final ByteBuffer record;        // null - empty chunk
+        private final CPUDensityField field;    // persisted when the record is written, null for an empty chunk
+
+        PendingRecord(long chunkCode, ByteBuffer record, CPUDensityField field) {
+            this.chunkCode = chunkCode;
+            this.record = record;
+            this.field = field;
+        }
+    }
+
+    private static final class Region {
+        private final FileChannel channel;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final long[] offsets = new long[REGION_SLOTS];
+        private final int[] lengths = new int[REGION_SLOTS];
+        private final int[] crcs = new int[REGION_SLOTS];
+        private final TreeMap<Long, Integer> free = new TreeMap<>();   // offset -> length of the gaps between records
+        private long end = DATA_START;                                  // end of the last record
+
+        Region(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // first fit in the free gaps, appended otherwise
+        long allocate(int length) {
+            for (Map.Entry<Long, Integer> gap : free.entrySet()) {
+                long offset = gap.getKey();
+                int gapLength = gap.getValue();
+                if (gapLength >= length) {
+                    free.remove(offset);
+                    release(offset + length, gapLength - length);
+                    return offset;
+                }
+            }
+            long offset = end;
+            end += length;
+            return offset;
+        }
+
+        // frees the space and merges it with the neighbour gaps, a gap at the end of the records shortens them
+        void release(long offset, int length) {
+            if (length <= 0) {
+                return;
+            }
+            long gapEnd = offset + length;
+            Map.Entry<Long, Integer> before = free.floorEntry(offset);
+            if (before != null && before.getKey() + before.getValue() == offset) {
+                free.remove(before.getKey());
+                offset = before.getKey();
+            }
+            Integer after = free.remove(gapEnd);
+            if (after != null) {
+                gapEnd += after;
+            }
+            if (gapEnd == end) {
+                end = offset;
+            } else {
+                free.put(offset, (int) (gapEnd - offset));
+            }
+        }
+    }
+
+    public DensityFieldStore(MeshGenerationContext meshGen, String directory, long generatorSignature) {
+        this.meshGen = meshGen;
+        this.directory = Paths.get(directory);
+        this.generatorSignature = generatorSignature;
+        writer = new Thread(this::writeQueuedRecords, "DensityFieldStore writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // true if the chunk was stored as empty (GenerateDefaultDensityField found no material)
+    public boolean isEmpty(ChunkNode node) {
+        PendingRecord pending = pendingRecords.get(node.chunkCode);
+        if (pending != null) {
+            return pending.record == null;
+        }
+        Region region = getRegion(node.chunkCode, false);
+        if (region == null) {
+            return false;
+        }
+        region.lock.readLock().lock();
+        try {
+            return region.offsets[slot(node.chunkCode)] == EMPTY_OFFSET;
+        } finally {
+            region.lock.readLock().unlock();
+        }
+    }
+
+    // true if a density field record of the chunk is stored
+    public boolean contains(ChunkNode node) {
+        PendingRecord pending = pendingRecords.get(node.chunkCode);
+        if (pending != null) {
+            return pending.record != null;
+        }
+        Region region = getRegion(node.chunkCode, false);
+        if (region == null) {
+            return false;
+        }
+        region.lock.readLock().lock();
+        try {
+            return region.offsets[slot(node.chunkCode)] > 0;
+        } finally {
+            region.lock.readLock().unlock();
+        }
+    }
+
+    // returns null if the chunk is not stored, stored as empty or the record is broken
+    public CPUDensityField load(ChunkNode node) {
+        PendingRecord pending = pendingRecords.get(node.chunkCode);
+        if (pending != null) {
+            return pending.record == null ? null : readField(pending.record.duplicate().order(ByteOrder.LITTLE_ENDIAN), node.min, node.size);
+        }
+        Region region = getRegion(node.chunkCode, false);
+        if (region == null) {
+            return null;
+        }
+        int slot = slot(node.chunkCode);
+        // the record can be overwritten by the next store of the chunk, it is read under the lock
+        region.lock.readLock().lock();
+        try {
+            long offset = region.offsets[slot];
+            int length = region.lengths[slot];
+            int crc = region.crcs[slot];
+            if (offset <= 0) {
+                return null;
+            }
+            MappedByteBuffer buffer = region.channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc32 = new CRC32();
+            crc32.update(buffer.duplicate());
+            if ((int) crc32.getValue() != crc) {
+                logger.log(Level.WARNING, "density field record of chunk " + node + " is broken");
+                return null;
+            }
+            return readField(buffer, node.min, node.size);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "can not read density field of chunk " + node, e);
+            return null;
+        } finally {
+            region.lock.readLock().unlock();
+        }
+    }
+
+    public void store(ChunkNode node, CPUDensityField field) {
+        queue(new PendingRecord(node.chunkCode, writeField(field), field));
+    }
+
+    public void storeEmpty(ChunkNode node) {
+        queue(new PendingRecord(node.chunkCode, null, null));
+    }
+
+    private void queue(PendingRecord pending) {
+        if (closed || pending.chunkCode <= 0) {
+            return;
+        }
+        pendingRecords.compute(pending.chunkCode, (code, previous) -> {
+            if (pending.field != null) {
+                pending.field.persisted = false;
+            }
+            return pending;
+        });
+        try {
+            writeQueue.put(pending);
+        } catch (InterruptedException e) {
+            pendingRecords.remove(pending.chunkCode, pending);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeQueuedRecords() {
+        try {
+            while (true) {
+                PendingRecord pending = writeQueue.take();
+                if (pending == CLOSE) {
+                    return;
+                }
+                boolean written = write(pending.chunkCode, pending.record == null ? null : pending.record.duplicate());
+                // a field stored again meanwhile is persisted by its later record
+                pendingRecords.computeIfPresent(pending.chunkCode, (code, latest) -> {
+                    if (latest != pending) {
+                        return latest;
+                    }
+                    if (written && pending.field != null) {
+                        pending.field.persisted = true;
+                    }
+                    return null;
+                });
+            }
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "density field writer is interrupted, " + writeQueue.size() + " records are not stored");
+        }
+    }
+
+    // writes the queued records, the stores must be finished before
+    public void close() {
+        closed = true;
+        try {
+            writeQueue.put(CLOSE);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Region region : regions.values()) {
+            region.lock.writeLock().lock();
+            try {
+                region.channel.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "can not close density field region", e);
+            } finally {
+                region.lock.writeLock().unlock();
+            }
+        }
+        regions.clear();
+        missingRegions.clear();
+    }
+
+    private boolean write(long chunkCode, ByteBuffer record) {
+        Region region = getRegion(chunkCode, true);
+        if (region == null) {
+            return false;
+        }
+        int slot = slot(chunkCode);
+        region.lock.writeLock().lock();
+        try {
+            long oldOffset = region.offsets[slot];
+            int oldLength = region.lengths[slot];
+            long offset = EMPTY_OFFSET;
+            int length = 0, crc = 0;
+            if (record != null) {
+                length = record.remaining();
+                if (oldOffset > 0 && (length <= oldLength || oldOffset + oldLength == region.end)) {
+                    offset = oldOffset;
+                    if (length <= oldLength) {
+                        region.release(offset + length, oldLength - length);
+                    } else {
+                        region.end = offset + length;
+                    }
+                } else {
+                    offset = region.allocate(length);
+                }
+                CRC32 crc32 = new CRC32();
+                crc32.update(record.duplicate());
+                crc = (int) crc32.getValue();
+                writeFully(region.channel, record, offset);
+            }
+            // the index entry is written after the record, a record cut by a crash fails the crc check
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            entry.putLong(offset).putInt(length).putInt(crc).flip();
+            writeFully(region.channel, entry, HEADER_SIZE + (long) slot * INDEX_ENTRY_SIZE);
+            region.offsets[slot] = offset;
+            region.lengths[slot] = length;
+            region.crcs[slot] = crc;
+            // a moved record frees its old space only now, so it is not overwritten before the index entry
+            if (oldOffset > 0 && offset != oldOffset) {
+                region.release(oldOffset, oldLength);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "can not store density field of chunk code " + chunkCode, e);
+            return false;
+        } finally {
+            region.lock.writeLock().unlock();
+        }
+    }
+
+    // forWrite - create the region file or start an outdated one again, otherwise null is returned for them
+    private Region getRegion(long chunkCode, boolean forWrite) {
+        if (chunkCode <= 0) {
+            return null;
+        }
+        long regionCode = chunkCode >>> REGION_SHIFT;
+        Region region = regions.get(regionCode);
+        if (region == null) {
+            if (!forWrite && missingRegions.contains(regionCode)) {
+                return null;
+            }
+            synchronized (regions) {
+                region = regions.get(regionCode);
+                if (region == null) {
+                    region = openRegion(regionCode, forWrite);
+                    if (region != null) {
+                        regions.put(regionCode, region);
+                        missingRegions.remove(regionCode);
+                    } else if (!forWrite) {
+                        missingRegions.add(regionCode);
+                    }
+                }
+            }
+        }
+        return region;
+    }
+
+    private Region openRegion(long regionCode, boolean forWrite) {
+        Path file = directory.resolve("r." + Long.toHexString(regionCode) + ".dcr");
+        if (!forWrite && !Files.isRegularFile(file)) {
+            return null;
+        }
+        FileChannel channel = null;
+        try {
+            if (forWrite) {
+                Files.createDirectories(directory);
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } else {
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            Region region = new Region(channel);
+            if (channel.size() >= DATA_START && readHeader(region)) {
+                return region;
+            }
+            if (!forWrite) {
+                channel.close();
+                return null;
+            }
+            // new or outdated region file, start it again
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(DATA_START).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(meshGen.getVoxelsPerChunk()).putInt(meshGen.getFieldSize())
+                    .putInt(meshGen.worldSizeXZ).putLong(generatorSignature);
+            header.clear();
+            writeFully(channel, header, 0);
+            return region;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "can not open density field region " + file, e);
+            closeQuietly(channel);
+            return null;
+        }
+    }
+
+    private boolean readHeader(Region region) throws IOException {
+        MappedByteBuffer header = region.channel.map(FileChannel.MapMode.READ_ONLY, 0, DATA_START);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != meshGen.getVoxelsPerChunk()
+                || header.getInt() != meshGen.getFieldSize() || header.getInt() != meshGen.worldSizeXZ
+                || header.getLong() != generatorSignature) {
+            return false;
+        }
+        header.position(HEADER_SIZE);
+        long fileSize = region.channel.size();
+        for (int i = 0; i < REGION_SLOTS; i++) {
+            long offset = header.getLong();
+            int length = header.getInt();
+            int crc = header.getInt();
+            if (offset > 0 && offset + length > fileSize) {
+                offset = 0;     // record was not written completely
+            }
+            region.offsets[i] = offset;
+            region.lengths[i] = length;
+            region.crcs[i] = crc;
+        }
+        findFreeSpace(region);
+        return true;
+    }
+
+    // the gaps between the records are free, the space after the last record is reused by the next appended one
+    private static void findFreeSpace(Region region) {
+        int count = 0;
+        long[] records = new long[REGION_SLOTS];
+        for (int i = 0; i < REGION_SLOTS; i++) {
+            if (region.offsets[i] > 0) {
+                records[count++] = region.offsets[i] << REGION_SHIFT | i;
+            }
+        }
+        Arrays.sort(records, 0, count);
+        long end = DATA_START;
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (records[i] & (REGION_SLOTS - 1));
+            long offset = region.offsets[slot];
+            if (offset > end) {
+                region.free.put(end, (int) (offset - end));
+            }
+            end = Math.max(end, offset + region.lengths[slot]);
+        }
+        region.end = end;
+    }
+
+    private ByteBuffer writeField(CPUDensityField field) {
+        int flags = field.csgEdited ? FLAG_CSG_EDITED : 0;
+        for (int material : field.materials) {
+            if ((material & ~0xFF) != 0) {
+                flags |= FLAG_INT_MATERIALS;
+                break;
+            }
+        }
+        HermiteEdgeStore edges = field.hermiteEdges;
+        int pageCount = edges.getPageCount();
+        long[] words = new long[pageCount];
+        int edgeCount = 0;
+        for (int page = 0; page < pageCount; page++) {
+            words[page] = edges.getOccupancyWord(page);
+            edgeCount += Long.bitCount(words[page]);
+        }
+        int length = 4 + field.materials.length * ((flags & FLAG_INT_MATERIALS) == 0 ? 1 : 4)
+                + 4 + pageCount * 8 + edgeCount * 4 * 4;
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(flags);
+        if ((flags & FLAG_INT_MATERIALS) == 0) {
+            for (int material : field.materials) {
+                buffer.put((byte) material);
+            }
+        } else {
+            buffer.asIntBuffer().put(field.materials);
+            buffer.position(buffer.position() + field.materials.length * 4);
+        }
+        buffer.putInt(pageCount);
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+        for (int page = 0; page < pageCount; page++) {
+            for (long word = words[page]; word != 0; word &= word - 1) {
+                int index = (page << 6) | Long.numberOfTrailingZeros(word);
+                buffer.putFloat(edges.getNormalX(index)).putFloat(edges.getNormalY(index))
+                        .putFloat(edges.getNormalZ(index)).putFloat(edges.getCrossing(index));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private CPUDensityField readField(ByteBuffer buffer, Vec3i min, int size) {
+        CPUDensityField field = new CPUDensityField();
+        field.min = min;
+        field.size = size;
+        int fieldSize = meshGen.getFieldSize();
+        field.materials = new int[fieldSize * fieldSize * fieldSize];
+        int flags = buffer.getInt();
+        field.csgEdited = (flags & FLAG_CSG_EDITED) != 0;
+        if ((flags & FLAG_INT_MATERIALS) == 0) {
+            for (int i = 0; i < field.materials.length; i++) {
+                field.materials[i] = buffer.get() & 0xFF;
+            }
+        } else {
+            buffer.asIntBuffer().get(field.materials);
+            buffer.position(buffer.position() + field.materials.length * 4);
+        }
+        field.hermiteEdges = new HermiteEdgeStore(meshGen);
+        int pageCount = buffer.getInt();
+        if (pageCount != field.hermiteEdges.getPageCount()) {
+            throw new IllegalStateException("edge page count " + pageCount + " does not match " + field.hermiteEdges.getPageCount());
+        }
+        long[] words = new long[pageCount];
+        for (int page = 0; page < pageCount; page++) {
+            words[page] = buffer.getLong();
+        }
+        for (int page = 0; page < pageCount; page++) {
+            for (long word = words[page]; word != 0; word &= word - 1) {
+                int index = (page << 6) | Long.numberOfTrailingZeros(word);
+                field.hermiteEdges.set(index, buffer.getFloat(), buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+            }
+        }
+        return field;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static int slot(long chunkCode) {
+        return (int) (chunkCode & (REGION_SLOTS - 1));
+    }
+}
@@ -0,0 +1,169 @@
+package dc.impl;
+
+import core.math.Vec4f;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ Dense Hermite edge storage of the chunk field. Every edge is addressed by its array position
+ (see MeshGenerationContext.getArrayPosByEdgeCode), occupancy is kept in a bitset and the edge data
+ (normal xyz + crossing t) lives in flat float pages of 64 edges, one page per bitset word.
+ Pages are allocated on first write, so only the part of the field crossed by the surface costs memory.
+ Writers may run in parallel as long as they write different edges (FindFieldEdgesPerChild).
+ */
+public class HermiteEdgeStore {
+    private static final int PAGE_SHIFT = 6;
+    private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+    private static final int EDGE_STRIDE = 4;
+
+    private final MeshGenerationContext meshGen;
+    private final int capacity;
+    private final AtomicLongArray occupancy;
+    private final float[][] pages;
+
+    public HermiteEdgeStore(MeshGenerationContext meshGen) {
+        this.meshGen = meshGen;
+        int hermiteSize = meshGen.getHermiteIndexSize();
+        this.capacity = hermiteSize * hermiteSize * hermiteSize * 3;
+        int numPages = (capacity + PAGE_MASK) >> PAGE_SHIFT;
+        this.occupancy = new AtomicLongArray(numPages);
+        this.pages = new float[numPages][];
+    }
+
+    // returns -1 for edges outside of the hermite index grid (CSG can touch the last field row)
+    public int indexOf(int edgeCode) {
+        int voxelIndex = edgeCode >> 2;
+        int x = voxelIndex & meshGen.getIndexMask();
+        int y = (voxelIndex >> meshGen.getIndexShift()) & meshGen.getIndexMask();
+        int z = (voxelIndex >> (meshGen.getIndexShift() * 2)) & meshGen.getIndexMask();
+        if (x >= meshGen.getHermiteIndexSize() || y >= meshGen.getHermiteIndexSize() || z >= meshGen.getHermiteIndexSize()
+                || (edgeCode & 3) > 2) {
+            return -1;
+        }
+        return meshGen.getArrayPosByEdgeCode(edgeCode);
+    }
+
+    public boolean contains(int edgeCode) {
+        return has(indexOf(edgeCode));
+    }
+
+    public boolean has(int index) {
+        return index >= 0 && (occupancy.get(index >> PAGE_SHIFT) & (1L << (index & PAGE_MASK))) != 0;
+    }
+
+    public float getNormalX(int index) {
+        return pages[index >> PAGE_SHIFT][(index & PAGE_MASK) * EDGE_STRIDE];
+    }
+
+    public float getNormalY(int index) {
+        return pages[index >> PAGE_SHIFT][(index & PAGE_MASK) * EDGE_STRIDE + 1];
+    }
+
+    public float getNormalZ(int index) {
+        return pages[index >> PAGE_SHIFT][(index & PAGE_MASK) * EDGE_STRIDE + 2];
+    }
+
+    public float getCrossing(int index) {
+        return pages[index >> PAGE_SHIFT][(index & PAGE_MASK) * EDGE_STRIDE + 3];
+    }
+
+    public Vec4f get(int edgeCode) {
+        int index = indexOf(edgeCode);
+        if (!has(index)) {
+            return null;
+        }
+        return new Vec4f(getNormalX(index), getNormalY(index), getNormalZ(index), getCrossing(index));
+    }
+
+    public void put(int edgeCode, Vec4f edge) {
+        put(edgeCode, edge.x, edge.y, edge.z, edge.w);
+    }
+
+    public void put(int edgeCode, float nx, float ny, float nz, float t) {
+        int index = indexOf(edgeCode);
+        if (index >= 0) {
+            set(index, nx, ny, nz, t);
+        }
+    }
+
+    public void set(int index, float nx, float ny, float nz, float t) {
+        int page = index >> PAGE_SHIFT;
+        float[] data = pages[page];
+        if (data == null) {
+            data = allocatePage(page);
+        }
+        int offset = (index & PAGE_MASK) * EDGE_STRIDE;
+        data[offset] = nx;
+        data[offset + 1] = ny;
+        data[offset + 2] = nz;
+        data[offset + 3] = t;
+
+        long bit = 1L << (index & PAGE_MASK);
+        long word;
+        do {
+            word = occupancy.get(page);
+        } while ((word & bit) == 0 && !occupancy.compareAndSet(page, word, word | bit));
+    }
+
+    public void remove(int edgeCode) {
+        int index = indexOf(edgeCode);
+        if (index < 0) {
+            return;
+        }
+        int page = index >> PAGE_SHIFT;
+        long bit = 1L << (index & PAGE_MASK);
+        long word;
+        do {
+            word = occupancy.get(page);
+        } while ((word & bit) != 0 && !occupancy.compareAndSet(page, word, word & ~bit));
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < occupancy.length(); i++) {
+            size += Long.bitCount(occupancy.get(i));
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < occupancy.length(); i++) {
+            if (occupancy.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // occupancy bits of the edges [page * 64, page * 64 + 64), used to walk the set edges in index order
+    public long getOccupancyWord(int page) {
+        return occupancy.get(page);
+    }
+
+    public int getPageCount() {
+        return occupancy.length();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getSizeInBytes() {
+        long size = occupancy.length() * 8L + pages.length * 8L;
+        for (float[] page : pages) {
+            if (page != null) {
+                size += page.length * 4L;
+            }
+        }
+        return size;
+    }
+
+    private synchronized float[] allocatePage(int page) {
+        float[] data = pages[page];
+        if (data == null) {
+            data = new float[(PAGE_MASK + 1) * EDGE_STRIDE];
+            pages[page] = data;
+        }
+        return data;
+    }
+}
@@ -5,18 +5,18 @@ import core.math.Vec3i;
 import core.math.Vec4f;
 import core.math.Vec4i;
 import core.utils.BufferUtil;
-import core.utils.Constants;
 import dc.*;
 import dc.csg.ICSGOperations;
+import dc.entities.BorderNodes;
 import dc.entities.CSGOperationInfo;
 import dc.entities.MeshBuffer;
-import dc.entities.MeshVertex;
-import dc.solver.LevenQefSolver;
-import dc.solver.QEFData;
+import dc.solver.BatchQefSolver;
+import dc.utils.BoundedLruCache;
+import dc.utils.SimplexNoise;
+import dc.utils.SimplexNoise.BoxDensity;
 import dc.utils.VoxelHelperUtils;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -29,20 +29,24 @@ import java.util.logging.Logger;
 import static dc.utils.SimplexNoise.getNoise;
 import static java.lang.Math.max;
 
-public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements VoxelOctree {
+public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements VoxelOctree, ChunkBuildStages<CpuChunkBuild> {
     final public static Logger logger = Logger.getLogger(LevenLinearCPUOctreeImpl.class.getName());
     private final ExecutorService service;
     private final int availableProcessors;
     private final boolean enableQefClamping = true;
     private final ExecutorService childsService;
+    private final CpuScanService scanService;
+    private final BatchQefSolver qefSolver = new BatchQefSolver();
+    private final ActiveVoxelClassifier voxelClassifier;
 
-    private Map<Vec4i, CPUDensityField> densityFieldCache;
-    private Map<Vec4i, CpuOctree> octreeCache;
+    private final BoundedLruCache<Vec4i, CPUDensityField> densityFieldCache;
+    private final BoundedLruCache<Vec4i, CpuOctree> octreeCache;
+    private final DensityFieldStore densityFieldStore;    // can be null, then every field is generated
     private final Map<Long, ChunkNode> mortonCodesChunksMap;
 
     public LevenLinearCPUOctreeImpl(MeshGenerationContext meshGenerationContext, ICSGOperations csgOperations,
-                                    Map<Vec4i, CPUDensityField> densityFieldCache, Map<Vec4i, CpuOctree> octreeCache,
-                                    Map<Long, ChunkNode> chunks) {
+                                    BoundedLruCache<Vec4i, CPUDensityField> densityFieldCache, BoundedLruCache<Vec4i, CpuOctree> octreeCache,
+                                    DensityFieldStore densityFieldStore, Map<Long, ChunkNode> chunks) {
         super(meshGenerationContext, csgOperations);
 
         availableProcessors = max(1, Runtime.getRuntime().availableProcessors() / 2);
@@ -56,8 +60,11 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
             }
         });
         childsService = Executors.newFixedThreadPool(8);
+        scanService = new CpuScanService(availableProcessors);
+        voxelClassifier = new ActiveVoxelClassifier(meshGenerationContext);
         this.densityFieldCache = densityFieldCache;
         this.octreeCache = octreeCache;
+        this.densityFieldStore = densityFieldStore;
         this.mortonCodesChunksMap = chunks;
     }
 
@@ -66,7 +73,7 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
         Vec4i key = new Vec4i(min, clipmapNodeSize);
         CpuOctree octree = octreeCache.remove(key);     //System.out.println("octreeCache size " + octreeCache.size());
         if(octree!=null) {
-            octree.octreeNodes.clear();
+            octree.octreeNodes = null;
             octree.nodeCodes = null;
             octree.nodeMaterials = null;
             octree.vertexNormals = null;
@@ -75,8 +82,33 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
     }
 
     @Override
-    public boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer buffer) {
-        CpuOctree octree = LoadOctree(node);
+    public boolean createLeafVoxelNodes(ChunkNode node, MeshBuffer buffer) {
+        CpuChunkBuild build = loadDensityField(node);
+        constructOctree(node, build);
+        return generateMesh(node, build, buffer);
+    }
+
+    @Override
+    public CpuChunkBuild loadDensityField(ChunkNode node) {
+        CpuChunkBuild build = new CpuChunkBuild();
+        build.octree = octreeCache.get(new Vec4i(node.min, node.size));
+        if (build.octree == null) {
+            build.field = LoadDensityField(node);
+        }
+        return build;
+    }
+
+    @Override
+    public void constructOctree(ChunkNode node, CpuChunkBuild build) {
+        if (build.octree == null && build.field != null) {
+            build.octree = LoadOctree(node, build.field);
+        }
+        build.field = null;
+    }
+
+    @Override
+    public boolean generateMesh(ChunkNode node, CpuChunkBuild build, MeshBuffer buffer) {
+        CpuOctree octree = build.octree;
         if(octree==null){
             return false;
         }
@@ -94,86 +126,160 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
             //////////////////////////////
             compactMeshTriangles(d_trianglesValid, d_indexBuffer, d_compactIndexBuffer);
 
-            MeshVertex[] d_vertexBuffer = new MeshVertex[octree.numNodes];
             //////////////////////////////
-            GenerateMeshVertexBuffer(octree.vertexPositions, octree.vertexNormals, octree.nodeMaterials,
-                    VoxelHelperUtils.ColourForMinLeafSize(node.size / meshGen.clipmapLeafSize), d_vertexBuffer);
-            buffer.setVertices(BufferUtil.createDcFlippedBufferAOS(d_vertexBuffer));
+            buffer.setVertices(BufferUtil.createDcFlippedBufferSOA(octree.vertexPositions, octree.vertexNormals,
+                    VoxelHelperUtils.ColourForMinLeafSize(node.size / meshGen.clipmapLeafSize), octree.numNodes));
             buffer.setNumVertices(octree.numNodes);
             buffer.setIndicates(BufferUtil.createFlippedBuffer(d_compactIndexBuffer));
             buffer.setNumIndicates(d_compactIndexBuffer.length);
 
             int[] isSeamNode = new int[octree.numNodes];
-            // ToDo return seamNodes which size have seamSize from method
             int seamSize = findSeamNodes(octree.nodeCodes, isSeamNode, 0, octree.numNodes);
-            extractNodeInfo(isSeamNode, VoxelHelperUtils.ColourForMinLeafSize(node.size / meshGen.getVoxelsPerChunk()),//Constants.Yellow,
-                    node.size / meshGen.getVoxelsPerChunk(), node.min, 0, octree.numNodes,
-                    octree.nodeCodes, octree.nodeMaterials, octree.vertexPositions, octree.vertexNormals, seamNodes);
+            BorderNodes borderNodes = new BorderNodes(node.min, node.size / meshGen.getVoxelsPerChunk(),
+                    VoxelHelperUtils.ColourForMinLeafSize(node.size / meshGen.getVoxelsPerChunk()), seamSize);
+            extractNodeInfo(isSeamNode, 0, octree.numNodes,
+                    octree.nodeCodes, octree.nodeMaterials, octree.vertexPositions, octree.vertexNormals, borderNodes);
+            node.chunkBorderNodes = borderNodes;
         }
         return true;
     }
 
     @Override
-    public void computeApplyCSGOperations(CSGOperationInfo lastOperation, ChunkNode node) {
+    public void computeApplyCSGOperations(List<CSGOperationInfo> operations, ChunkNode node) {
         CPUDensityField field = LoadDensityField(node);
         if(field==null)
             return;
 
         if(node.size == meshGen.clipmapLeafSize) {
-            node.chunkIsChanged = getCsgOperationsProcessor().ApplyCSGOperations(meshGen, lastOperation, node, field);
+            node.chunkIsChanged = getCsgOperationsProcessor().ApplyCSGOperations(meshGen, operations, node, field);
             if(node.chunkIsChanged) {
                 node.chunkCSGEdited = true;
             }
         } else {
             node.reduceStatus = ReduceStateEnum.CSG_TOUCHED;
-            getCsgOperationsProcessor().ApplyReduceOperations(node, field, densityFieldCache);
+            getCsgOperationsProcessor().ApplyReduceOperations(node, field, this::LoadEditedChildField);
         }
         if(node.chunkIsChanged || node.reduceStatus.equals(ReduceStateEnum.CSG_TOUCHED)) {
-            StoreDensityField(field);
+            StoreDensityField(field, node);
         }
     }
 
-    private CpuOctree LoadOctree(ChunkNode node){
+    private CpuOctree LoadOctree(ChunkNode node, CPUDensityField field){
         Vec4i key = new Vec4i(node.min, node.size);
-        CpuOctree octree = octreeCache.get(key);
-        if (octree!=null){
-            return octree;
-        }
-        CPUDensityField field = LoadDensityField(node);
-        if(field==null){
-            return null;
-        }
+        CpuOctree octree = null;
 
         if(node.size > meshGen.clipmapLeafSize && node.reduceStatus.equals(ReduceStateEnum.NEED_TO_REDUCE)) {
-            getCsgOperationsProcessor().ApplyReduceOperations(node, field, densityFieldCache);
+            getCsgOperationsProcessor().ApplyReduceOperations(node, field, this::LoadEditedChildField);
             if (node.chunkCSGEdited) {
-                StoreDensityField(field);
+                StoreDensityField(field, node);
                 node.reduceStatus = ReduceStateEnum.INITIAL;
             }
         }
-        if(field.hermiteEdges.size()>0){
+        if(!field.hermiteEdges.isEmpty()){
             octree = ConstructOctreeFromField(node, field);
-            octreeCache.put(key, octree);   //System.out.println("octreeCache size " + octreeCache.size());
+            if (octree != null) {
+                octreeCache.put(key, octree);   //System.out.println("octreeCache size " + octreeCache.size());
+            }
         }
         return octree;
     }
 
-    private void StoreDensityField(CPUDensityField field) {
+    private void StoreDensityField(CPUDensityField field, ChunkNode node) {
+        field.csgEdited |= node.chunkCSGEdited;
 	    Vec4i key = new Vec4i(field.min, field.size);
+        field.persisted = false;
         densityFieldCache.put(key, field);
+        if (densityFieldStore != null) {
+            densityFieldStore.store(node, field);   // sets persisted once it is written
+        }
     }
 
     private CPUDensityField LoadDensityField(ChunkNode node){
         Vec4i key = new Vec4i(node.min, node.size);
         CPUDensityField field = densityFieldCache.get(key);
+        // with edited children FindFieldEdgesPerChild leaves their octants to the reduce, a stored field
+        // can only be used if it is already a reduced one
+        boolean editedChild = hasEditedChild(node);
+        if(field==null && densityFieldStore != null) {
+            if (densityFieldStore.isEmpty(node)) {
+                return null;
+            }
+            field = densityFieldStore.load(node);
+            if (field != null && editedChild && !field.csgEdited) {
+                field = null;
+            }
+            if (field != null) {
+                field.csgEdited |= node.chunkCSGEdited;
+                field.persisted = true;
+            }
+        }
+        if(field==null && !editedChild && !node.chunkCSGEdited && classifyChunk(node) == BoxDensity.AIR) {
+            return null;
+        }
         if(field==null) {
             field = new CPUDensityField();
             field.min = node.min;
             field.size = node.size;
             if(GenerateDefaultDensityField(field)==0){
+                if (densityFieldStore != null) {
+                    densityFieldStore.storeEmpty(node);
+                }
                 return null;
             }
+            field.hermiteEdges = new HermiteEdgeStore(meshGen);
             FindFieldEdgesPerChild(field, node);
+            if (densityFieldStore != null && !editedChild) {    // stored by StoreDensityField after the reduce
+                densityFieldStore.store(node, field);
+            }
+        }
+        return field;
+    }
+
+    @Override
+    public boolean isChunkWithoutSurface(ChunkNode node) {
+        if (node.chunkCSGEdited || node.reduceStatus != ReduceStateEnum.INITIAL || hasEditedChild(node)) {
+            return false;
+        }
+        // a stored field can hold CSG edits of an earlier launch
+        if (densityFieldStore != null && densityFieldStore.contains(node)) {
+            return false;
+        }
+        return classifyChunk(node) != BoxDensity.SURFACE;
+    }
+
+    @Override
+    public void shutdown() {
+        service.shutdown();
+        childsService.shutdown();
+        scanService.shutdown();
+    }
+
+    // the box of the field lattice, deepSearchIntersection samples inside of it too
+    private BoxDensity classifyChunk(ChunkNode node) {
+        int extent = (meshGen.getFieldSize() - 1) * (node.size / meshGen.getVoxelsPerChunk());
+        return SimplexNoise.classifyBox(node.min.x, node.min.y, node.min.z,
+                node.min.x + extent, node.min.y + extent, node.min.z + extent);
+    }
+
+    private boolean hasEditedChild(ChunkNode node) {
+        for (int i = 0; i < 8; i++) {
+            ChunkNode child = mortonCodesChunksMap.get((node.chunkCode<<3)|i);
+            if (child != null && child.chunkCSGEdited) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // edited fields can be evicted from the cache once they are persisted, then they are read back from the store
+    private CPUDensityField LoadEditedChildField(ChunkNode child){
+        CPUDensityField field = densityFieldCache.get(new Vec4i(child.min, child.size));
+        if (field == null && densityFieldStore != null) {
+            field = densityFieldStore.load(child);
+            if (field != null) {
+                field.csgEdited = true;
+                field.persisted = true;
+            }
         }
         return field;
     }
@@ -209,8 +315,8 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
         octree.octreeNodes = compactVoxels(d_leafOccupancy, d_leafEdgeInfo, d_leafCodes, d_leafMaterials,
                 octree.nodeCodes, d_compactLeafEdgeInfo, octree.nodeMaterials, octree.numNodes);
 
-        octree.vertexNormals = new Vec4f[octree.numNodes];
-        octree.vertexPositions = new Vec4f[octree.numNodes];
+        octree.vertexNormals = new float[octree.numNodes * 3];
+        octree.vertexPositions = new float[octree.numNodes * 3];
         createLeafNodesMultiThread(octree.numNodes, octree.nodeCodes, d_compactLeafEdgeInfo, field.hermiteEdges,
                 octree.vertexNormals, node, octree.vertexPositions);
         return octree;
@@ -219,19 +325,20 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
     private int GenerateDefaultFieldMultiThread(Vec3i offset, int sampleScale, int defaultMaterialIndex,
                                                 int[] field_materials) {
         int bound = meshGen.getFieldSize();
-        int threadBound = (bound * bound * bound) / availableProcessors;
         List<Callable<Integer>> tasks = new ArrayList<>();
         for (int i = 0; i < availableProcessors; i++) {
-            int finalI = i;
+            int fromZ = i * bound / availableProcessors;
+            int toZ = (i + 1) * bound / availableProcessors;
             tasks.add(() -> {
-                int from = finalI * threadBound;
-                int to = from + threadBound;
+                float[] densities = new float[bound * bound * (toZ - fromZ)];
+                SimplexNoise.getNoiseLattice(offset.x, offset.y, offset.z + fromZ * sampleScale, sampleScale,
+                        bound, bound, toZ - fromZ, densities);
+                int materialIndex = meshGen.getMaterialIndex(0, 0, fromZ);
                 int size = 0;
-                for (int it = from; it < to; it++) {
-                    int x = it % bound;
-                    int y = (it / bound) % bound;
-                    int z = (it / bound / bound);
-                    size = processMaterial(offset, sampleScale, defaultMaterialIndex, field_materials, size, new Vec3i(x, y, z));
+                for (float density : densities) {
+                    int material = density < 0.f ? defaultMaterialIndex : meshGen.MATERIAL_AIR;
+                    field_materials[materialIndex++] = material;
+                    if (material == defaultMaterialIndex) size++;
                 }
                 return size;
             });
@@ -239,15 +346,6 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
         return VoxelOctree.performIntCallableTask(tasks, service, logger);
     }
 
-    private int processMaterial(Vec3i offset, int sampleScale, int defaultMaterialIndex, int[] field_materials, int size, Vec3i local_pos) {
-        Vec3i world_pos = local_pos.mul(sampleScale).add(offset);
-        float density = getNoise(world_pos);
-        int material = density < 0.f ? defaultMaterialIndex : meshGen.MATERIAL_AIR;
-        field_materials[meshGen.getMaterialIndex(local_pos)] = material;
-        if (material == defaultMaterialIndex) size++;
-        return size;
-    }
-
     private int FindFieldEdgesPerChild(CPUDensityField field, ChunkNode node) {
 
         int childSize = meshGen.getHermiteIndexSize()/2;
@@ -275,7 +373,7 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
     }
 
     private void processFindFieldEdges(Vec3i chunkMin, int sampleScale, int[] materials,
-                                      int z, int y, int x, Map<Integer, Vec4f> normals) {
+                                      int z, int y, int x, HermiteEdgeStore normals) {
         Vec3i pos = new Vec3i(x, y, z);
 
         int[] CORNER_MATERIALS = {
@@ -306,7 +404,7 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
                         || pos.z == meshGen.getHermiteIndexSize() - 1);
     }
 
-    private void deepSearchIntersection(int sampleScale, Map<Integer, Vec4f> normals, Vec3i pos, Vec3i chunkMin, int i, int edgeCode) {
+    private void deepSearchIntersection(int sampleScale, HermiteEdgeStore normals, Vec3i pos, Vec3i chunkMin, int i, int edgeCode) {
         Vec3i startPoint = pos.mul(sampleScale).add(chunkMin);
         Vec3i midPoint = startPoint.add(EDGE_END_OFFSETS[i].mul(sampleScale / 2));
         Vec3i endPoint = startPoint.add(EDGE_END_OFFSETS[i].mul(sampleScale));
@@ -360,93 +458,29 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
             int from = i * threadBound;
             int to = from + threadBound;
             boolean last = (i == availableProcessors - 1 && to <= bound - 1);
-            tasks.add(() -> FindActiveVoxels(from, last ? bound : to, field,
+            tasks.add(() -> voxelClassifier.classify(from, last ? bound : to, field,
                     voxelOccupancy, voxelEdgeInfo, voxelPositions, voxelMaterials));
         }
         return VoxelOctree.performIntCallableTask(tasks, service, logger);
     }
 
-    private int FindActiveVoxels(int from, int to, CPUDensityField field,
-                         int[] voxelOccupancy, int[] voxelEdgeInfo, int[] voxelPositions, int[] voxelMaterials) {
-        int size = 0;
-        for (int k = from; k < to; k++) {
-            int indexShift = VoxelHelperUtils.log2(meshGen.getVoxelsPerChunk()); // max octree depth
-            int x = (k >> (indexShift * 0)) & meshGen.getVoxelsPerChunk() - 1;
-            int y = (k >> (indexShift * 1)) & meshGen.getVoxelsPerChunk() - 1;
-            int z = (k >> (indexShift * 2)) & meshGen.getVoxelsPerChunk() - 1;
-
-            int index = x + (y * meshGen.getVoxelsPerChunk()) + (z * meshGen.getVoxelsPerChunk() * meshGen.getVoxelsPerChunk());
-            Vec3i pos = new Vec3i(x, y, z);
-
-            int[] cornerMaterials = {
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[0]))],
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[1]))],
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[2]))],
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[3]))],
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[4]))],
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[5]))],
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[6]))],
-                    field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[7]))],
-            };
-
-            // record the on/off values at the corner of each voxel
-            int cornerValues = 0;
-            cornerValues |= (((cornerMaterials[0]) == meshGen.MATERIAL_AIR ? 0 : 1) << 0);
-            cornerValues |= (((cornerMaterials[1]) == meshGen.MATERIAL_AIR ? 0 : 1) << 1);
-            cornerValues |= (((cornerMaterials[2]) == meshGen.MATERIAL_AIR ? 0 : 1) << 2);
-            cornerValues |= (((cornerMaterials[3]) == meshGen.MATERIAL_AIR ? 0 : 1) << 3);
-            cornerValues |= (((cornerMaterials[4]) == meshGen.MATERIAL_AIR ? 0 : 1) << 4);
-            cornerValues |= (((cornerMaterials[5]) == meshGen.MATERIAL_AIR ? 0 : 1) << 5);
-            cornerValues |= (((cornerMaterials[6]) == meshGen.MATERIAL_AIR ? 0 : 1) << 6);
-            cornerValues |= (((cornerMaterials[7]) == meshGen.MATERIAL_AIR ? 0 : 1) << 7);
-
-            // record which of the 12 voxel edges are on/off
-            int edgeList = 0;
-            boolean haveVoxel = false;
-            int edgeCount = 0;
-            for (int i = 0; i < 12; i++) {
-                int axis = i / 4;
-                Vec3i hermiteIndexPosition = pos.add(CHILD_MIN_OFFSETS[edgevmap[i][0]]);
-                int edgeIndex = (meshGen.encodeVoxelIndex(hermiteIndexPosition) << 2) | axis;
-                Vec4f edgeData = field.hermiteEdges.get(edgeIndex);
-                if (edgeData != null) {
-                    edgeList |= (1 << i);
-                    edgeCount++;
-                }
-            }
-            if (edgeCount > 0) {
-                haveVoxel = true;
-                ++size;
-            }
-            voxelOccupancy[index] = haveVoxel ? 1 : 0;
-            voxelPositions[index] = meshGen.codeForPosition(pos);
-            voxelEdgeInfo[index] = edgeList;
-
-            // store cornerValues here too as its needed by the CPU side and edgeInfo isn't exported
-            int materialIndex = findDominantMaterial(cornerMaterials);
-            voxelMaterials[index] = (materialIndex << 8) | cornerValues;
-        }
-        return size;
-    }
-
-    private Map<Integer, Integer> compactVoxels(int[] voxelValid, int[] voxelEdgeInfo, int[] voxelPositions, int[] voxelMaterials,
+    private CpuCuckooHash compactVoxels(int[] voxelValid, int[] voxelEdgeInfo, int[] voxelPositions, int[] voxelMaterials,
                                                 int[] compactPositions, int[] compactEdgeInfo, int[] compactMaterials, int numVertices){
-        int current = 0;
-        Map<Integer, Integer> octreeNodes = new HashMap<>(numVertices);
-        for (int i = 0; i < voxelPositions.length; i++) {
-            if (voxelValid[i]==1) {
-                octreeNodes.put(voxelPositions[i], current);
-                compactPositions[current] = voxelPositions[i];
-                compactEdgeInfo[current] = voxelEdgeInfo[i];
-                compactMaterials[current] = voxelMaterials[i];
-                ++current;
-            }
-        }
+        int current = scanService.compact(voxelValid, voxelPositions.length, (src, dst) -> {
+            compactPositions[dst] = voxelPositions[src];
+            compactEdgeInfo[dst] = voxelEdgeInfo[src];
+            compactMaterials[dst] = voxelMaterials[src];
+        });
+        CpuCuckooHash octreeNodes = new CpuCuckooHash(meshGen, numVertices);
+        octreeNodes.insertKeys(compactPositions, current);
         return octreeNodes;
     }
 
-    private void createLeafNodesMultiThread(int bound, int[] voxelPositions, int[] voxelEdgeInfo, Map<Integer, Vec4f> nodes,
-                                               Vec4f[] vertexNormals, ChunkNode node, Vec4f[] solvedPositions) {
+    private void createLeafNodesMultiThread(int bound, int[] voxelPositions, int[] voxelEdgeInfo, HermiteEdgeStore nodes,
+                                               float[] vertexNormals, ChunkNode node, float[] solvedPositions) {
+        float[] qefAta = new float[bound * BatchQefSolver.ATA_STRIDE];
+        float[] qefAtb = new float[bound * BatchQefSolver.ATB_STRIDE];
+        float[] qefMassPoints = new float[bound * BatchQefSolver.MASS_POINT_STRIDE];
         final int threadBound = bound / availableProcessors;
         List<Callable<Boolean>> tasks = new ArrayList<>();
         for (int i = 0; i < availableProcessors; i++) {
@@ -455,23 +489,23 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
             boolean last = (i == availableProcessors - 1 && to <= bound - 1);
             tasks.add(() -> {
                 createLeafNodes(from, last ? bound : to, voxelPositions, voxelEdgeInfo, nodes, vertexNormals,
-                        node, solvedPositions);
+                        node, solvedPositions, qefAta, qefAtb, qefMassPoints);
                 return true;
             });
         }
         VoxelOctree.performBoolCallableTask(tasks, service, logger);
     }
 
-    private void createLeafNodes(int from, int to, int[] voxelPositions, int[] voxelEdgeInfo, Map<Integer, Vec4f> nodes,
-                         Vec4f[] vertexNormals, ChunkNode node, Vec4f[] solvedPositions)
+    private void createLeafNodes(int from, int to, int[] voxelPositions, int[] voxelEdgeInfo, HermiteEdgeStore nodes,
+                                 float[] vertexNormals, ChunkNode node, float[] solvedPositions,
+                                 float[] qefAta, float[] qefAtb, float[] qefMassPoints)
     {
         for (int index = from; index < to; index++) {
-            int encodedPosition = voxelPositions[index];
-            Vec3i position = meshGen.positionForCode(encodedPosition);
+            Vec3i position = meshGen.positionForCode(voxelPositions[index]);
+            int px = position.x, py = position.y, pz = position.z;
             int edgeList = voxelEdgeInfo[index];
 
-            Vec4f[] edgePositions = new Vec4f[12];
-            Vec4f[] edgeNormals = new Vec4f[12];
+            float nx = 0.f, ny = 0.f, nz = 0.f;
             int edgeCount = 0;
 
             for (int i = 0; i < 12; i++) {
@@ -479,44 +513,65 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
                 if (active==0) {
                     continue;
                 }
-                int e0 = edgevmap[i][0];
-                int e1 = edgevmap[i][1];
-                Vec4f p0 = position.add(CHILD_MIN_OFFSETS[e0]).toVec4f();
-                Vec4f p1 = position.add(CHILD_MIN_OFFSETS[e1]).toVec4f();
+                Vec3i o0 = CHILD_MIN_OFFSETS[edgevmap[i][0]];
+                Vec3i o1 = CHILD_MIN_OFFSETS[edgevmap[i][1]];
 
                 // this works due to the layout EDGE_VERTEX_MAP, the first 4 elements are the X axis
                 // the next 4 are the Y axis and the last 4 are the Z axis
                 int axis = i / 4;
-                Vec3i hermiteIndexPosition = position.add(CHILD_MIN_OFFSETS[e0]);
-                int edgeIndex = (meshGen.encodeVoxelIndex(hermiteIndexPosition) << 2) | axis;
-
-                Vec4f edgeData = nodes.get(edgeIndex);
-                if (edgeData!=null) {
-                    edgePositions[edgeCount] = VoxelHelperUtils.mix(p0, p1, edgeData.w);//.mul(sampleScale);
-                    edgeNormals[edgeCount] = new Vec4f(edgeData.x, edgeData.y, edgeData.z, 0);
+                int edgeIndex = (meshGen.encodeVoxelIndex(px + o0.x, py + o0.y, pz + o0.z) << 2) | axis;
+
+                int edgeDataIndex = nodes.indexOf(edgeIndex);
+                if (nodes.has(edgeDataIndex)) {
+                    float t = nodes.getCrossing(edgeDataIndex);
+                    float enx = nodes.getNormalX(edgeDataIndex);
+                    float eny = nodes.getNormalY(edgeDataIndex);
+                    float enz = nodes.getNormalZ(edgeDataIndex);
+                    BatchQefSolver.addPoint(qefAta, qefAtb, qefMassPoints, index,
+                            (px + o0.x) + (o1.x - o0.x) * t,
+                            (py + o0.y) + (o1.y - o0.y) * t,
+                            (pz + o0.z) + (o1.z - o0.z) * t,
+                            enx, eny, enz);
+                    nx += enx;
+                    ny += eny;
+                    nz += enz;
                     edgeCount++;
                 }
             }
-            QEFData qef = new QEFData(new LevenQefSolver());
-            qef.qef_create_from_points(edgePositions, edgeNormals, edgeCount);
+            // the averaged normal is normalized together with its w = 1 component, as Vec4f.normalize does
+            nx /= edgeCount;
+            ny /= edgeCount;
+            nz /= edgeCount;
+            float nw = 1.f;
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz + nw * nw);
+            vertexNormals[index * 3] = nx / length;
+            vertexNormals[index * 3 + 1] = ny / length;
+            vertexNormals[index * 3 + 2] = nz / length;
+        }
 
-            Vec4f normal = new Vec4f(0.f, 0.f, 0.f, 0.f);
-            for (int i = 0; i < edgeCount; i++) {
-                normal = normal.add(edgeNormals[i]);
-                normal.w += 1.f;
-            }
-            Vec4f nor = normal.div(normal.w).normalize();
-            normal.w = 0.f;
-            vertexNormals[index] = nor;
-
-            int leafSize = (node.size / meshGen.getVoxelsPerChunk());
-            Vec4f solvedPos = qef.solve().mul(leafSize).add(node.min);
-            if(enableQefClamping) {
-                Vec3i leaf = position.mul(leafSize).add(node.min);
-                Vec4f massPoint = qef.getMasspoint().mul(leafSize).add(node.min);
-                solvedPos = VoxelHelperUtils.isOutFromBounds(solvedPos.getVec3f(), leaf.toVec3f(), leafSize) ? massPoint : solvedPos;
+        qefSolver.solve(qefAta, qefAtb, qefMassPoints, solvedPositions, from, to);
+
+        int leafSize = (node.size / meshGen.getVoxelsPerChunk());
+        for (int index = from; index < to; index++) {
+            int p = index * 3;
+            float x = solvedPositions[p] * leafSize + node.min.x;
+            float y = solvedPositions[p + 1] * leafSize + node.min.y;
+            float z = solvedPositions[p + 2] * leafSize + node.min.z;
+            if (enableQefClamping) {
+                Vec3i position = meshGen.positionForCode(voxelPositions[index]);
+                float minX = position.x * leafSize + node.min.x;
+                float minY = position.y * leafSize + node.min.y;
+                float minZ = position.z * leafSize + node.min.z;
+                if (x < minX || x > minX + leafSize || y < minY || y > minY + leafSize || z < minZ || z > minZ + leafSize) {
+                    int m = index * BatchQefSolver.MASS_POINT_STRIDE;
+                    x = qefMassPoints[m] * leafSize + node.min.x;
+                    y = qefMassPoints[m + 1] * leafSize + node.min.y;
+                    z = qefMassPoints[m + 2] * leafSize + node.min.z;
+                }
             }
-            solvedPositions[index] = solvedPos;
+            solvedPositions[p] = x;
+            solvedPositions[p + 1] = y;
+            solvedPositions[p + 2] = z;
         }
     }
 
@@ -543,7 +598,7 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
             { new Vec3i(0, 0, 0), new Vec3i(0, 1, 0), new Vec3i(1, 0, 0), new Vec3i(1, 1, 0) },
     };
 
-    private int generateMeshMultiThread(int bound, Map<Integer, Integer> nodes, int[] octreeNodeCodes, int[] octreeMaterials,
+    private int generateMeshMultiThread(int bound, CpuCuckooHash nodes, int[] octreeNodeCodes, int[] octreeMaterials,
                                          int[] meshIndexBuffer, int[] trianglesValid) {
         List<Callable<Integer>> tasks = new ArrayList<>();
         final int threadBound = bound / availableProcessors;
@@ -558,7 +613,7 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
         return VoxelOctree.performIntCallableTask(tasks, service, logger);
     }
 
-    private int generateMesh(int from, int to, Map<Integer, Integer> nodes, int[] octreeNodeCodes, int[] octreeMaterials,
+    private int generateMesh(int from, int to, CpuCuckooHash nodes, int[] octreeNodeCodes, int[] octreeMaterials,
                              int[] meshIndexBuffer, int[] trianglesValid) {
         int size = 0;
         for (int index = from; index < to; index++) {
@@ -567,7 +622,7 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
 
             Vec3i offset = meshGen.positionForCode(code);
             int[] pos = {offset.x, offset.y, offset.z};
-            Integer[] nodeIndices = {null, null, null, null};
+            int[] nodeIndices = {-1, -1, -1, -1};
 
             for (int axis = 0; axis < 3; axis++) {
                 trianglesValid[triIndex + axis] = 0;
@@ -586,10 +641,10 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
                 for (int n = 1; n < 4; n++) {
                     Vec3i p = offset.add(EDGE_NODE_OFFSETS[axis][n]);
                     int c = meshGen.codeForPosition(p);
-                    nodeIndices[n] = nodes.get(c);
+                    nodeIndices[n] = nodes.find(c);
                 }
 
-                if (nodeIndices[1] != null && nodeIndices[2] != null && nodeIndices[3] != null) {
+                if (nodeIndices[1] != -1 && nodeIndices[2] != -1 && nodeIndices[3] != -1) {
                     int bufferOffset = (triIndex * 6) + (axis * 6);
                     int trisEmitted = processEdge(nodeIndices, octreeMaterials[index], axis, meshIndexBuffer, bufferOffset);
                     size += trisEmitted;
@@ -600,7 +655,7 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
         return size;
     }
 
-    private int processEdge(Integer[] nodeIndices, int nodeMaterial, int axis, int[] indexBuffer, int bufferOffset) {
+    private int processEdge(int[] nodeIndices, int nodeMaterial, int axis, int[] indexBuffer, int bufferOffset) {
         int edge = (axis * 4) + 3;
         int c1 = edgevmap[edge][0];
         int c2 = edgevmap[edge][1];
@@ -630,52 +685,21 @@ public class LevenLinearCPUOctreeImpl extends AbstractDualContouring implements
     }
 
     private int compactMeshTriangles(int[] trianglesValid, int[] meshIndexBuffer, int[] compactMeshIndexBuffer) {
-        int current = 0;
-        for (int index = 0; index < trianglesValid.length; index++) {
-            if (trianglesValid[index] == 1) {
-                int scanOffset = current * 6;
-                int bufferOffset = (index * 6);
-                System.arraycopy(meshIndexBuffer, bufferOffset, compactMeshIndexBuffer, scanOffset, 6);
-//                for (int i = 0; i < 6; i++) {
-//                    compactMeshIndexBuffer[scanOffset + i] = meshIndexBuffer[bufferOffset + i];
-//                }
-                ++current;
-            }
-        }
-        return current;
-    }
-
-    private void GenerateMeshVertexBuffer(Vec4f[] vertexPositions, Vec4f[] vertexNormals, int[] nodeMaterials, Vec3f colour,
-                                          MeshVertex[] meshVertexBuffer) {
-        for (int index = 0; index < vertexPositions.length; index++) {
-            int material = nodeMaterials[index];
-            meshVertexBuffer[index] = new MeshVertex();
-            meshVertexBuffer[index].setPos(vertexPositions[index].getVec3f());
-            meshVertexBuffer[index].setNormal(vertexNormals[index].getVec3f());
-            meshVertexBuffer[index].setColor(colour); //colour = new Vec4f(colour.X, colour.Y, colour.Z, (float) (material >> 8));
-        }
+        return scanService.compact(trianglesValid, trianglesValid.length,
+                (index, current) -> System.arraycopy(meshIndexBuffer, index * 6, compactMeshIndexBuffer, current * 6, 6));
     }
 
-    private void extractNodeInfo(int[] isSeamNode, Vec3f color,
-                                 int leafSize, Vec3i chunkMin, int from, int to,
-                                 int[] octreeCodes, int[] octreeMaterials, Vec4f[] octreePositions, Vec4f[] octreeNormals,
-                                 List<OctreeNode> seamNodes) {
-        int i=0;
+    private void extractNodeInfo(int[] isSeamNode, int from, int to,
+                                 int[] octreeCodes, int[] octreeMaterials, float[] octreePositions, float[] octreeNormals,
+                                 BorderNodes seamNodes) {
+        int i = 0;
         for (int index = from; index < to; index++) {
             if (isSeamNode==null || isSeamNode[index]==1) {
-                Vec3i min = meshGen.positionForCode(octreeCodes[index]).mul(leafSize).add(chunkMin);
-                PointerBasedOctreeNode node = new PointerBasedOctreeNode(min, leafSize, OctreeNodeType.Node_Leaf);
-                node.corners = octreeMaterials[index] & 255;
-                OctreeDrawInfo drawInfo = new OctreeDrawInfo();
-                drawInfo.position = octreePositions[index].getVec3f();
-                if(node.corners==0 || node.corners==255){
-                    drawInfo.color = Constants.White;
-                } else
-                    drawInfo.color = color;
-                drawInfo.averageNormal = octreeNormals[index].getVec3f();
-                node.drawInfo = drawInfo;
-                node.nodeNum = meshGen.positionForCode(octreeCodes[index]);
-                seamNodes.add(node);
+                seamNodes.codes[i] = octreeCodes[index];
+                seamNodes.corners[i] = octreeMaterials[index] & 255;
+                System.arraycopy(octreePositions, index * 3, seamNodes.positions, i * 3, 3);
+                System.arraycopy(octreeNormals, index * 3, seamNodes.normals, i * 3, 3);
+                ++i;
             }
         }
     }
@@ -142,46 +142,34 @@ public class MeshGenerationContext {
         return encoded;
     }
 
+    public int encodeVoxelIndex(int x, int y, int z) {
+        return x | (y << getIndexShift()) | (z << (getIndexShift() * 2));
+    }
+
     public Vec3i positionForCode(int code) {
         int nodeDepth = getMsb(code)/3;
-        Vec3i pos = new Vec3i();
-        for (int i = MAX_OCTREE_DEPTH - nodeDepth; i < MAX_OCTREE_DEPTH; i++) {
-            int c = code & 7;
-            code >>= 3;
-
-            int x = (c >> 2) & 1;
-            int y = (c >> 1) & 1;
-            int z = (c >> 0) & 1;
-
-            pos.x |= (x << i);
-            pos.y |= (y << i);
-            pos.z |= (z << i);
-        }
-        return pos;
+        int shift = MAX_OCTREE_DEPTH - nodeDepth;
+        int bits = code & ((1 << (nodeDepth * 3)) - 1);
+        return new Vec3i(
+                Morton3D.Morton32_CompactBits3(bits >> 2) << shift,
+                Morton3D.Morton32_CompactBits3(bits >> 1) << shift,
+                Morton3D.Morton32_CompactBits3(bits) << shift);
     }
 
     public int codeForPosition(Vec3i p) {
-        return codeForPosition(p, MAX_OCTREE_DEPTH);
+        return codeForPosition(p.x, p.y, p.z);
     }
 
-    private int codeForPosition(Vec3i p, int nodeDepth) {
-        int code = 1;
-        for (int depth = MAX_OCTREE_DEPTH - 1; depth >= (MAX_OCTREE_DEPTH - nodeDepth); depth--) {
-            int x = (p.x >> depth) & 1;
-            int y = (p.y >> depth) & 1;
-            int z = (p.z >> depth) & 1;
-            int c = (x << 2) | (y << 1) | z;
-            code = (code << 3) | c;
-        }
-        return code;
+    // x occupies the highest bit of every octant triple, see the child index layout of CHILD_MIN_OFFSETS
+    public int codeForPosition(int x, int y, int z) {
+        int mask = (1 << MAX_OCTREE_DEPTH) - 1;
+        return (1 << (MAX_OCTREE_DEPTH * 3)) |
+                (Morton3D.Morton32_SpreadBits3(x & mask) << 2) |
+                (Morton3D.Morton32_SpreadBits3(y & mask) << 1) |
+                Morton3D.Morton32_SpreadBits3(z & mask);
     }
 
     private int getMsb(int value) {
-        for (int i = 0, maxBits = 31, test = ~(~0 >>> 1); 0 != test; ++i, test >>>= 1) {
-            if (test == (value & test)) {
-                return (maxBits - i);
-            }
-        }
-        return -1;
+        return 31 - Integer.numberOfLeadingZeros(value);
     }
 }
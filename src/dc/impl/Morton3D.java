@@ -59,7 +59,7 @@ public class Morton3D {
     x = (x ^ (x >>  8)) & 0x0000ffff; // x = ---- ---- ---- ---- fedc ba98 7654 3210
     */
 /// Contract bits along the 32-bit unsigned integer.
-    private static int Morton32_CompactBits3(int x) {
+    public static int Morton32_CompactBits3(int x) {
         x &= 0x09249249; // 0b...01001001
         x = (x ^ (x >> 2)) & 0x030c30c3;
         x = (x ^ (x >> 4)) & 0x0300f00f;
@@ -85,7 +85,7 @@ public class Morton3D {
     //......98..7..5..6....43..2..1..0
     //....9..8..7..5..6..4..3..2..1..0
     /// Dilate bits along the 32-bit unsigned integer.
-    private static int Morton32_SpreadBits3(int x ) {
+    public static int Morton32_SpreadBits3(int x ) {
         x &= 0x3ff;	// zero out the upper 20 bits
         x = (x | x << 16) & 0x30000ff;	// 0b______11 ________ ________ 11111111
         x = (x | x << 8) & 0x300f00f;	// 0b______11 ________ 1111____ ____1111
@@ -122,12 +122,7 @@ public class Morton3D {
     }
 
     private static int getMsb(int value) {
-        for (int i = 0, maxBits = 31, test = ~(~0 >>> 1); 0 != test; ++i, test >>>= 1) {
-            if (test == (value & test)) {
-                return (maxBits - i);
-            }
-        }
-        return -1;
+        return 31 - Integer.numberOfLeadingZeros(value);
     }
 
     public static int Morton32_getCellDepth(int cell_address){
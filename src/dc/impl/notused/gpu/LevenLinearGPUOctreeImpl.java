@@ -13,6 +13,7 @@ import dc.entities.MeshBuffer;
 import dc.impl.MeshGenerationContext;
 import dc.impl.notused.gpu.opencl.*;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -42,7 +43,14 @@ public class LevenLinearGPUOctreeImpl extends AbstractDualContouring implements
     }
 
     @Override
-    public boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer buffer) {
+    public boolean createLeafVoxelNodes(ChunkNode node, MeshBuffer buffer) {
+        List<OctreeNode> seamNodes = new ArrayList<>();
+        boolean result = createLeafVoxelNodes(node, seamNodes, buffer);
+        node.chunkBorderNodes = createBorderNodes(node, seamNodes);
+        return result;
+    }
+
+    private boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer buffer) {
         GPUDensityField field = new GPUDensityField();
         field.setMin(node.min);
         field.setSize(node.size);
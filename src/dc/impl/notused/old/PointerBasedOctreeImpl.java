@@ -40,7 +40,14 @@ public class PointerBasedOctreeImpl extends AbstractDualContouring implements Vo
     }
 
     @Override
-    public boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer meshBuffer) {
+    public boolean createLeafVoxelNodes(ChunkNode node, MeshBuffer buffer) {
+        List<OctreeNode> seamNodes = new ArrayList<>();
+        boolean result = createLeafVoxelNodes(node, seamNodes, buffer);
+        node.chunkBorderNodes = createBorderNodes(node, seamNodes);
+        return result;
+    }
+
+    private boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer meshBuffer) {
         boolean result;
         List<OctreeNode> chunkNodes = new ArrayList<>();
 
@@ -53,7 +53,14 @@ public class SimpleLinearOctreeImpl extends AbstractDualContouring implements Vo
     public void computeFreeChunkOctree(Vec3i min, int clipmapNodeSize) { }
 
     @Override
-    public boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer buffer) {
+    public boolean createLeafVoxelNodes(ChunkNode node, MeshBuffer buffer) {
+        List<OctreeNode> seamNodes = new ArrayList<>();
+        boolean result = createLeafVoxelNodes(node, seamNodes, buffer);
+        node.chunkBorderNodes = createBorderNodes(node, seamNodes);
+        return result;
+    }
+
+    private boolean createLeafVoxelNodes(ChunkNode node, List<OctreeNode> seamNodes, MeshBuffer buffer) {
         // usyal in serial calculating leaf nodes data. More slowly.
         try {
             return createLeafVoxelNodesTraditionalConcurrent(node, meshGen.getVoxelsPerChunk(), seamNodes, buffer);
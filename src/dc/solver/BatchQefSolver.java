@@ -0,0 +1,146 @@
+package dc.solver;
+
+/*
+ Structure-of-arrays version of LevenQefSolver for solving many leaf QEFs at once.
+ Every leaf owns ATA_STRIDE floats of the upper triangle of ATA, ATB_STRIDE floats of ATb and
+ MASS_POINT_STRIDE floats of the mass point accumulator (xyz sum + point count) in the caller's arrays.
+ The solve loop works on primitives only and follows the same sequence of float operations as LevenQefSolver.solve,
+ so the solved positions match the per-leaf solver. The class has no mutable state and can be shared between threads.
+ */
+public final class BatchQefSolver {
+    public static final int ATA_STRIDE = 6;
+    public static final int ATB_STRIDE = 3;
+    public static final int MASS_POINT_STRIDE = 4;
+    public static final int POSITION_STRIDE = 3;
+
+    private static final int SVD_NUM_SWEEPS = 10;
+    private static final float PSUEDO_INVERSE_THRESHOLD = 0.1f;
+
+    // same as QEFData.qef_add_point, btb is not needed to solve the position
+    public static void addPoint(float[] ata, float[] atb, float[] massPoints, int leaf,
+                                float px, float py, float pz, float nx, float ny, float nz) {
+        int a = leaf * ATA_STRIDE;
+        ata[a] += nx * nx;
+        ata[a + 1] += nx * ny;
+        ata[a + 2] += nx * nz;
+        ata[a + 3] += ny * ny;
+        ata[a + 4] += ny * nz;
+        ata[a + 5] += nz * nz;
+        float dot = nx * px + ny * py + nz * pz;
+        int b = leaf * ATB_STRIDE;
+        atb[b] += dot * nx;
+        atb[b + 1] += dot * ny;
+        atb[b + 2] += dot * nz;
+        int m = leaf * MASS_POINT_STRIDE;
+        massPoints[m] += px;
+        massPoints[m + 1] += py;
+        massPoints[m + 2] += pz;
+        ++massPoints[m + 3];
+    }
+
+    /*
+     Solves leaves [from, to) and writes the positions to positions[leaf * POSITION_STRIDE].
+     The mass point accumulators are replaced by the averaged mass points (w = 1, or 0 for a leaf without points), as
+     LevenQefSolver.solve leaves them, so the caller can use them for clamping.
+     */
+    public void solve(float[] ata, float[] atb, float[] massPoints, float[] positions, int from, int to) {
+        float[] vtav = new float[9];
+        float[] v = new float[9];
+        float[] vinv = new float[9];
+        for (int leaf = from; leaf < to; leaf++) {
+            int a = leaf * ATA_STRIDE;
+            int b = leaf * ATB_STRIDE;
+            int m = leaf * MASS_POINT_STRIDE;
+
+            // prevent a div-by-zero as LevenQefSolver.solve does
+            float w = Math.max(massPoints[m + 3], 1.f);
+            float mx = massPoints[m] / w;
+            float my = massPoints[m + 1] / w;
+            float mz = massPoints[m + 2] / w;
+            massPoints[m] = mx;
+            massPoints[m + 1] = my;
+            massPoints[m + 2] = mz;
+            massPoints[m + 3] = massPoints[m + 3] / w;
+
+            float a00 = ata[a], a01 = ata[a + 1], a02 = ata[a + 2];
+            float a11 = ata[a + 3], a12 = ata[a + 4], a22 = ata[a + 5];
+
+            float bx = atb[b] - (a00 * mx + a01 * my + a02 * mz);
+            float by = atb[b + 1] - (a01 * mx + a11 * my + a12 * mz);
+            float bz = atb[b + 2] - (a02 * mx + a12 * my + a22 * mz);
+
+            vtav[0] = a00; vtav[1] = a01; vtav[2] = a02;
+            vtav[3] = 0.f; vtav[4] = a11; vtav[5] = a12;
+            vtav[6] = 0.f; vtav[7] = 0.f; vtav[8] = a22;
+
+            v[0] = 1.f; v[1] = 0.f; v[2] = 0.f;
+            v[3] = 0.f; v[4] = 1.f; v[5] = 0.f;
+            v[6] = 0.f; v[7] = 0.f; v[8] = 1.f;
+
+            for (int i = 0; i < SVD_NUM_SWEEPS; ++i) {
+                rotate(vtav, v, 0, 1);
+                rotate(vtav, v, 0, 2);
+                rotate(vtav, v, 1, 2);
+            }
+
+            pseudoInverse(vtav[0], vtav[4], vtav[8], v, vinv);
+
+            int p = leaf * POSITION_STRIDE;
+            positions[p] = (bx * vinv[0] + by * vinv[1] + bz * vinv[2]) + mx;
+            positions[p + 1] = (bx * vinv[3] + by * vinv[4] + bz * vinv[5]) + my;
+            positions[p + 2] = (bx * vinv[6] + by * vinv[7] + bz * vinv[8]) + mz;
+        }
+    }
+
+    // LevenQefSolver.svd_rotate on row-major 3x3 arrays
+    private static void rotate(float[] vtav, float[] v, int a, int b) {
+        int aa = a * 3 + a, bb = b * 3 + b, ab = a * 3 + b;
+        if (vtav[ab] == 0.0) {
+            return;
+        }
+
+        float a_pp = vtav[aa], a_pq = vtav[ab], a_qq = vtav[bb];
+        float tau = (a_qq - a_pp) / (2.f * a_pq);
+        float stt = (float) Math.sqrt(1.f + tau * tau);
+        float tan = 1.f / ((tau >= 0.f) ? (tau + stt) : (tau - stt));
+        float c = (float) Math.pow(1.f + tan * tan, -0.5);
+        float s = tan * c;
+
+        float cc = c * c;
+        float ss = s * s;
+        float mx = 2 * c * s * a_pq;
+        vtav[aa] = cc * a_pp - mx + ss * a_qq;
+        vtav[bb] = ss * a_pp + mx + cc * a_qq;
+
+        int x = 3 - b;                  // vtav[0][3-b]
+        int y = (1 - a) * 3 + 2;        // vtav[1-a][2]
+        float u = vtav[x];
+        float t = vtav[y];
+        vtav[x] = c * u - s * t;
+        vtav[y] = s * u + c * t;
+
+        vtav[ab] = 0f;
+
+        for (int row = 0; row < 9; row += 3) {
+            u = v[row + a];
+            t = v[row + b];
+            v[row + a] = c * u - s * t;
+            v[row + b] = s * u + c * t;
+        }
+    }
+
+    private static float invdet(float x) {
+        return (float) ((Math.abs(x) < PSUEDO_INVERSE_THRESHOLD || Math.abs(1.0 / x) < PSUEDO_INVERSE_THRESHOLD) ? 0.0 : (1.0 / x));
+    }
+
+    private static void pseudoInverse(float sigmaX, float sigmaY, float sigmaZ, float[] v, float[] o) {
+        float d0 = invdet(sigmaX);
+        float d1 = invdet(sigmaY);
+        float d2 = invdet(sigmaZ);
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                o[i * 3 + j] = v[i * 3] * d0 * v[j * 3] + v[i * 3 + 1] * d1 * v[j * 3 + 1] + v[i * 3 + 2] * d2 * v[j * 3 + 2];
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package dc.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/*
+ LRU cache with a byte budget. Every entry is weighed when it is put, when the weight of all entries exceeds the budget
+ the least recently used entries are evicted. Pinned entries (e.g. CSG edited density fields, which can not be generated
+ again) are never evicted, so the budget can be exceeded by pinned entries alone.
+ The pinned state is checked at eviction time, an entry has to be put again after its weight changed.
+ All methods are synchronized, the cache is shared between the chunk build pipeline stages.
+ */
+public class BoundedLruCache<K, V> {
+    private final String name;
+    private final long byteBudget;
+    private final ToLongFunction<V> weigher;
+    private final Predicate<V> pinned;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long weight;
+
+        Entry(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    public BoundedLruCache(String name, long byteBudget, ToLongFunction<V> weigher, Predicate<V> pinned) {
+        this.name = name;
+        this.byteBudget = byteBudget;
+        this.weigher = weigher;
+        this.pinned = pinned;
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        return entry.value;
+    }
+
+    public synchronized V put(K key, V value) {
+        Entry<V> entry = new Entry<>(value, weigher.applyAsLong(value));
+        Entry<V> prev = entries.put(key, entry);
+        usedBytes += entry.weight;
+        if (prev != null) {
+            usedBytes -= prev.weight;
+        }
+        evict(key);
+        return prev != null ? prev.value : null;
+    }
+
+    public synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        usedBytes -= entry.weight;
+        return entry.value;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    // evicts from the least recently used end, the entry which was just put stays
+    private void evict(K currentKey) {
+        Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+        while (usedBytes > byteBudget && it.hasNext()) {
+            Map.Entry<K, Entry<V>> e = it.next();
+            if (e.getKey().equals(currentKey) || pinned.test(e.getValue().value)) {
+                continue;
+            }
+            usedBytes -= e.getValue().weight;
+            it.remove();
+            ++evictions;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return name + " cache{" +
+                "entries=" + entries.size() +
+                ", usedBytes=" + usedBytes +
+                ", byteBudget=" + byteBudget +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                '}';
+    }
+}
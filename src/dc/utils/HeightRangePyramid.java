@@ -0,0 +1,88 @@
+package dc.utils;
+
+import java.util.Arrays;
+
+/*
+ Min/max pyramid of a square heightmap. Level 0 holds the lowest and highest height of every CELL_SIZE x CELL_SIZE
+ block of texels, every next level of 2 x 2 cells of the previous one. A texel rectangle is answered from the level
+ whose cells are at least as large as the rectangle, so at most 2 x 2 cells are read; the range is conservative,
+ it can be wider than the exact range of the rectangle but never narrower.
+ */
+public class HeightRangePyramid {
+    private static final int CELL_SIZE = 16;
+
+    private final int cellShift;
+    private final int[] levelSize;
+    private final float[][] minHeights;
+    private final float[][] maxHeights;
+
+    // texel (u, v) of the heightmap is at index u + v * size
+    public interface Texels {
+        float get(int index);
+    }
+
+    public HeightRangePyramid(Texels texels, int size) {
+        int cellSize = Math.min(CELL_SIZE, size);
+        this.cellShift = Integer.numberOfTrailingZeros(cellSize);
+        int levels = Integer.numberOfTrailingZeros(size) - cellShift + 1;
+        levelSize = new int[levels];
+        minHeights = new float[levels][];
+        maxHeights = new float[levels][];
+
+        int dim = size >> cellShift;
+        float[] min = new float[dim * dim];
+        float[] max = new float[dim * dim];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (int v = 0; v < size; v++) {
+            int rowCell = (v >> cellShift) * dim;
+            for (int u = 0; u < size; u++) {
+                float height = texels.get(u + v * size);
+                int cell = rowCell + (u >> cellShift);
+                if (height < min[cell]) min[cell] = height;
+                if (height > max[cell]) max[cell] = height;
+            }
+        }
+        levelSize[0] = dim;
+        minHeights[0] = min;
+        maxHeights[0] = max;
+        for (int level = 1; level < levels; level++) {
+            int prevDim = dim;
+            float[] prevMin = min, prevMax = max;
+            dim = prevDim / 2;
+            min = new float[dim * dim];
+            max = new float[dim * dim];
+            for (int v = 0; v < dim; v++) {
+                for (int u = 0; u < dim; u++) {
+                    int i = 2 * u + 2 * v * prevDim;
+                    min[u + v * dim] = Math.min(Math.min(prevMin[i], prevMin[i + 1]), Math.min(prevMin[i + prevDim], prevMin[i + prevDim + 1]));
+                    max[u + v * dim] = Math.max(Math.max(prevMax[i], prevMax[i + 1]), Math.max(prevMax[i + prevDim], prevMax[i + prevDim + 1]));
+                }
+            }
+            levelSize[level] = dim;
+            minHeights[level] = min;
+            maxHeights[level] = max;
+        }
+    }
+
+    /*
+     Widens range[0] (min) and range[1] (max) by the heights of the texels u0..u1, v0..v1 (inclusive),
+     the rectangle must lie inside the heightmap.
+     */
+    public void range(int u0, int v0, int u1, int v1, float[] range) {
+        int extent = Math.max(u1 - u0, v1 - v0) + 1;
+        int level = 0;
+        while (level < levelSize.length - 1 && (1 << (cellShift + level)) < extent) {
+            level++;
+        }
+        int shift = cellShift + level;
+        int dim = levelSize[level];
+        float[] min = minHeights[level], max = maxHeights[level];
+        for (int v = v0 >> shift; v <= v1 >> shift; v++) {
+            for (int u = u0 >> shift; u <= u1 >> shift; u++) {
+                range[0] = Math.min(range[0], min[u + v * dim]);
+                range[1] = Math.max(range[1], max[u + v * dim]);
+            }
+        }
+    }
+}
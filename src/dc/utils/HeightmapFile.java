@@ -0,0 +1,282 @@
+package dc.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/*
+ Heightmap of SimplexNoise.Terrain cached in a file and mapped, the heights are sampled directly from the mapping.
+ File layout, little endian:
+   header: magic, version, size, header size, generator signature (long), crc32 of the heights (long), padding to 64 bytes
+   heights: size * size floats, index x + z * size
+ A file with another size or generator signature, or with a broken checksum, is not used and generated again.
+ A new file is generated in tiles on a fork-join pool, the tiles nearest to the spawn position first. Sampling a texel
+ of a tile which is not generated yet waits for that tile, so meshing around the spawn can begin before the whole map exists.
+ */
+public class HeightmapFile {
+    final public static Logger logger = Logger.getLogger(HeightmapFile.class.getName());
+    private static final int MAGIC = 0x484D4150;  // HMAP
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+
+    // heights of the texels (fromX + i, z), i < count
+    public interface HeightFunction {
+        void heights(int fromX, int z, int count, float[] out);
+    }
+
+    private static final int TILE_SIZE = 256;
+
+    private final FloatBuffer heights;
+    private final int size;
+    private final int tilesPerRow;
+    private final CountDownLatch[] tilesReady;     // null if the file was complete when it was opened
+    private final CountDownLatch finished = new CountDownLatch(1);
+    private final CompletableFuture<Void> generated = new CompletableFuture<>();
+    private volatile boolean complete;
+    private volatile long checksum;
+    private volatile Throwable failure;
+
+    private HeightmapFile(FloatBuffer heights, int size, long checksum) {
+        this.heights = heights;
+        this.size = size;
+        this.tilesPerRow = (size + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesReady = null;
+        this.checksum = checksum;
+        this.complete = true;
+        finished.countDown();
+        generated.complete(null);
+    }
+
+    private HeightmapFile(FloatBuffer heights, int size) {
+        this.heights = heights;
+        this.size = size;
+        this.tilesPerRow = (size + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesReady = new CountDownLatch[tilesPerRow * tilesPerRow];
+        for (int i = 0; i < tilesReady.length; i++) {
+            tilesReady[i] = new CountDownLatch(1);
+        }
+        this.complete = false;
+    }
+
+    // index x + z * size
+    public float get(int index) {
+        if (!complete) {
+            awaitTile((index / size / TILE_SIZE) * tilesPerRow + (index % size) / TILE_SIZE);
+        }
+        return heights.get(index);
+    }
+
+    // true when all tiles are generated, get never waits then
+    public boolean isComplete() {
+        return complete;
+    }
+
+    // runs action on a background thread when all tiles are generated, not at all if the generation fails
+    public void onComplete(Runnable action) {
+        generated.thenRunAsync(action).exceptionally(e -> {
+            if (failure == null) {
+                logger.log(Level.SEVERE, "heightmap completion action failed", e);
+            }
+            return null;
+        });
+    }
+
+    // crc32 of the heights, waits until the generation is finished
+    public long getChecksum() {
+        try {
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the heightmap", e);
+        }
+        checkFailure();
+        return checksum;
+    }
+
+    private void awaitTile(int tile) {
+        try {
+            tilesReady[tile].await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for the heightmap", e);
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new IllegalStateException("heightmap generation failed", failure);
+        }
+    }
+
+    // returns null if the file does not exist or does not match size and generator signature
+    public static HeightmapFile open(String filename, int size, long signature) {
+        Path path = Paths.get(filename);
+        if (Files.notExists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long dataSize = (long) size * size * 4;
+            if (channel.size() != HEADER_SIZE + dataSize) {
+                logger.log(Level.WARNING, "heightmap " + filename + " has wrong size " + channel.size());
+                return null;
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION || header.getInt() != size
+                    || header.getInt() != HEADER_SIZE || header.getLong() != signature) {
+                logger.log(Level.WARNING, "heightmap " + filename + " is generated with other parameters");
+                return null;
+            }
+            long checksum = header.getLong();
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, dataSize);
+            CRC32 crc32 = new CRC32();
+            crc32.update(data.duplicate());
+            if (crc32.getValue() != checksum) {
+                logger.log(Level.WARNING, "heightmap " + filename + " is broken");
+                return null;
+            }
+            return new HeightmapFile(data.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(), size, checksum);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "can not read heightmap " + filename, e);
+            return null;
+        }
+    }
+
+    /*
+     Starts the generation of the heightmap and returns at once, the heights become available tile by tile.
+     The tiles are written directly into the mapped file, the header is written when all tiles are done.
+     An interrupted generation leaves a file without header, which is generated again on the next start.
+     priorityX, priorityZ - texel whose tiles are generated first.
+     */
+    public static HeightmapFile create(String filename, int size, long signature, int priorityX, int priorityZ,
+                                       HeightFunction function) throws IOException {
+        long dataSize = (long) size * size * 4;
+        FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        MappedByteBuffer data;
+        try {
+            data = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, dataSize);   // grows the file to its full size
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        HeightmapFile heightmap = new HeightmapFile(data.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer(), size);
+
+        Integer[] tiles = new Integer[heightmap.tilesReady.length];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = i;
+        }
+        Arrays.sort(tiles, Comparator.comparingLong(tile -> heightmap.tileDistance(tile, priorityX, priorityZ)));
+
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        AtomicInteger nextTile = new AtomicInteger();
+        AtomicInteger doneTiles = new AtomicInteger();
+        long startTime = System.nanoTime();
+        // every worker takes the next tile in priority order, the last finished tile completes the file
+        for (int i = 0; i < parallelism; i++) {
+            pool.execute(() -> {
+                int next;
+                while ((next = nextTile.getAndIncrement()) < tiles.length && heightmap.failure == null) {
+                    try {
+                        heightmap.generateTile(tiles[next], function);
+                    } catch (Throwable e) {
+                        heightmap.fail(e, channel);
+                        return;
+                    }
+                    heightmap.tilesReady[tiles[next]].countDown();
+                    int done = doneTiles.incrementAndGet();
+                    if (done * 10 / tiles.length != (done - 1) * 10 / tiles.length) {
+                        logger.log(Level.INFO, "heightmap " + filename + " " + done * 100 / tiles.length + "% generated");
+                    }
+                    if (done == tiles.length) {
+                        heightmap.finish(channel, data, signature, filename, startTime);
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        return heightmap;
+    }
+
+    private long tileDistance(int tile, int x, int z) {
+        long dx = (tile % tilesPerRow) * TILE_SIZE + TILE_SIZE / 2 - x;
+        long dz = (tile / tilesPerRow) * TILE_SIZE + TILE_SIZE / 2 - z;
+        return dx * dx + dz * dz;
+    }
+
+    private void generateTile(int tile, HeightFunction function) {
+        int minX = (tile % tilesPerRow) * TILE_SIZE;
+        int minZ = (tile / tilesPerRow) * TILE_SIZE;
+        int maxX = Math.min(minX + TILE_SIZE, size);
+        int maxZ = Math.min(minZ + TILE_SIZE, size);
+        float[] row = new float[maxX - minX];
+        FloatBuffer tileHeights = heights.duplicate();
+        for (int z = minZ; z < maxZ; z++) {
+            function.heights(minX, z, row.length, row);
+            tileHeights.position(minX + z * size);
+            tileHeights.put(row);
+        }
+    }
+
+    private void finish(FileChannel channel, MappedByteBuffer data, long signature, String filename, long startTime) {
+        try {
+            CRC32 crc32 = new CRC32();
+            crc32.update(data.duplicate());
+            data.force();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(HEADER_SIZE).putLong(signature).putLong(crc32.getValue());
+            header.clear();
+            writeFully(channel, header, 0);
+            channel.force(false);
+            channel.close();    // the mapping stays valid
+            checksum = crc32.getValue();
+            complete = true;
+            finished.countDown();
+            generated.complete(null);
+            logger.log(Level.INFO, "heightmap " + filename + " generated in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+        } catch (Throwable e) {
+            fail(e, channel);
+        }
+    }
+
+    private void fail(Throwable e, FileChannel channel) {
+        logger.log(Level.SEVERE, "heightmap generation failed", e);
+        failure = e;
+        for (CountDownLatch tile : tilesReady) {
+            tile.countDown();
+        }
+        finished.countDown();
+        generated.completeExceptionally(e);
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+}
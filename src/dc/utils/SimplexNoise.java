@@ -22,63 +22,168 @@ import core.math.Vec2f;
 import core.math.Vec3f;
 import core.math.Vec3i;
 import core.math.Vec4f;
-import core.utils.ImageLoader;
 import org.joml.Vector3f;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.io.IOException;
+import java.util.zip.CRC32;
 
 public class SimplexNoise { // Simplex noise in 2D, 3D and 4D
 	static final float RIDGED_MULTI_H = 1.f;
 	static final float NOISE_SCALE =  1.f;
+	static final float MAX_TERRAIN_HEIGHT = 900.f;
 
 	private static SimplexNoise instance = null;
-	private static float[] densityField;
+	private static HeightmapFile heightmap;
 	public static int worldSizeXZ;
-	public static SimplexNoise getInstance(String filename, int worldSizeXZ) {
+	private static long heightmapSignature;
+	private static volatile HeightRangePyramid heightRanges;	// built in the background once the heightmap is complete
+
+	// density of all lattice points of a box: AIR - no point below the surface, SOLID - all points below it
+	public enum BoxDensity { AIR, SOLID, SURFACE }
+	public static SimplexNoise getInstance(String filename, int worldSizeXZ, Vec3f spawnPosition) {
 		if(instance == null) {
-			instance = new SimplexNoise(filename, worldSizeXZ);
+			instance = new SimplexNoise(filename, worldSizeXZ, spawnPosition);
 		}
 		return instance;
 	}
 
-	private SimplexNoise(String filename, int worldSizeXZ){
-		densityField = prepareAndStoreDensity(filename, worldSizeXZ);
+	private SimplexNoise(String filename, int worldSizeXZ, Vec3f spawnPosition){
 		SimplexNoise.worldSizeXZ = worldSizeXZ;
+		heightmap = prepareAndStoreDensity(filename, worldSizeXZ, spawnPosition);
+		// a full pass over the heightmap, kept off the threads which classify chunks
+		heightmap.onComplete(() -> heightRanges = new HeightRangePyramid(heightmap::get, worldSizeXZ));
 	}
 
-	private float[] prepareAndStoreDensity(String filename, int rootSize){
-		float[] densityField = new float[rootSize * rootSize];
-		Path path = Paths.get(filename);
-		if (Files.exists(path)) {
-			ImageLoader.loadImageToFloatArray(densityField, filename);
-		}
-		if (Files.notExists(path)) {
-			for (int z = 0; z < rootSize; z++) {
-				for (int x = 0; x < rootSize; x++) {
-					densityField[x + z * rootSize] = Terrain(new Vec2f((float)(x - (rootSize / 2)), (float)(z - (rootSize / 2))));
-				}
+	// a new heightmap is generated in the background, getNoise waits for the texels which are not generated yet
+	private HeightmapFile prepareAndStoreDensity(String filename, int rootSize, Vec3f spawnPosition){
+		long signature = terrainSignature();
+		heightmapSignature = signature;
+		HeightmapFile heightmap = HeightmapFile.open(filename, rootSize, signature);
+		if (heightmap == null) {
+			// getNoise reads the texel of world position (x, z) at index z + x * rootSize
+			int spawnX = ((int) spawnPosition.Z + rootSize / 2) & (rootSize - 1);
+			int spawnZ = ((int) spawnPosition.X + rootSize / 2) & (rootSize - 1);
+			try {
+				heightmap = HeightmapFile.create(filename, rootSize, signature, spawnX, spawnZ,
+						(fromX, z, count, out) -> {
+							float[] xs = new float[count], zs = new float[count];
+							for (int i = 0; i < count; i++) {
+								xs[i] = (float) (fromX + i - (rootSize / 2));
+								zs[i] = (float) (z - (rootSize / 2));
+							}
+							Terrain(xs, zs, count, out);
+						});
+			} catch (IOException e) {
+				throw new IllegalStateException("can not create heightmap " + filename, e);
 			}
-			ImageLoader.saveImageToFloat(densityField, filename);
 		}
-		return densityField;
+		return heightmap;
+	}
+
+	// Terrain at a few probe positions, a change of the terrain parameters changes the signature of the heightmap file
+	private static long terrainSignature() {
+		CRC32 crc32 = new CRC32();
+		for (int i = 0; i < 16; i++) {
+			int bits = Float.floatToRawIntBits(Terrain(new Vec2f(i * 977.f - 7000.f, i * -613.f + 4000.f)));
+			crc32.update(new byte[]{(byte) (bits >> 24), (byte) (bits >> 16), (byte) (bits >> 8), (byte) bits});
+		}
+		return crc32.getValue();
+	}
+
+	// identifies the terrain the density fields are generated from, known before the heightmap is generated
+	public static long getHeightmapSignature() {
+		return heightmapSignature;
+	}
+
+	// waits until the heightmap is generated
+	public static long getHeightmapChecksum() {
+		return heightmap.getChecksum();
 	}
 
 	public static float getNoise(Vec4f pos) {
-		return getNoise(new Vec3i(pos.x, pos.y, pos.z));
+		return getNoise((int) pos.x, (int) pos.y, (int) pos.z);
 	}
 
 	public static float getNoise(Vec3f pos) {
-		return getNoise(new Vec3i(pos.X, pos.Y, pos.Z));
+		return getNoise((int) pos.X, (int) pos.Y, (int) pos.Z);
 	}
 
 	public static float getNoise(Vec3i pos) {
-		float MAX_TERRAIN_HEIGHT = 900.f;
-		int x = (pos.x + worldSizeXZ /2) & worldSizeXZ -1;
-		int z = (pos.z + worldSizeXZ /2) & worldSizeXZ -1;
-		float height = densityField[z + x * worldSizeXZ];
-		return pos.y - (MAX_TERRAIN_HEIGHT * height) + 800;
+		return getNoise(pos.x, pos.y, pos.z);
+	}
+
+	public static float getNoise(int x, int y, int z) {
+		return getNoise(y, getTerrainHeight(x, z));
+	}
+
+	/*
+	 The density is the heightfield y - terrainHeight(x, z) + 800, so samples of the same (x, z) column can share one
+	 heightmap lookup: getNoise(x, y, z) == getNoise(y, getTerrainHeight(x, z)).
+	 */
+	public static float getTerrainHeight(int x, int z) {
+		return MAX_TERRAIN_HEIGHT * getHeight(x, z);
+	}
+
+	public static float getNoise(int y, float terrainHeight) {
+		return y - terrainHeight + 800;
+	}
+
+	private static float getHeight(int x, int z) {
+		int hx = (x + worldSizeXZ /2) & worldSizeXZ -1;
+		int hz = (z + worldSizeXZ /2) & worldSizeXZ -1;
+		return heightmap.get(hz + hx * worldSizeXZ);
+	}
+
+	/*
+	 Classifies the integer positions min..max (inclusive) of the density by the height range of the covered columns,
+	 getNoise(y, terrainHeight) is monotone in y and in the terrain height, so the bounds decide it for all positions.
+	 Returns SURFACE while the heightmap or its height ranges are still generated.
+	 */
+	public static BoxDensity classifyBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+		HeightRangePyramid pyramid = heightRanges;
+		if (pyramid == null) {
+			return BoxDensity.SURFACE;
+		}
+		float[] range = {Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+		// texel u comes from z, v from x, see getHeight; the box can wrap around the heightmap
+		int u0 = (minZ + worldSizeXZ /2) & worldSizeXZ -1;
+		int v0 = (minX + worldSizeXZ /2) & worldSizeXZ -1;
+		int uCount = Math.min(maxZ - minZ + 1, worldSizeXZ);
+		int vCount = Math.min(maxX - minX + 1, worldSizeXZ);
+		for (int v = v0, vLeft = vCount; vLeft > 0; v = 0) {
+			int vEnd = Math.min(v + vLeft, worldSizeXZ);
+			for (int u = u0, uLeft = uCount; uLeft > 0; u = 0) {
+				int uEnd = Math.min(u + uLeft, worldSizeXZ);
+				pyramid.range(u, v, uEnd - 1, vEnd - 1, range);
+				uLeft -= uEnd - u;
+			}
+			vLeft -= vEnd - v;
+		}
+		if (getNoise(minY, MAX_TERRAIN_HEIGHT * range[1]) >= 0.f) {
+			return BoxDensity.AIR;
+		}
+		if (getNoise(maxY, MAX_TERRAIN_HEIGHT * range[0]) < 0.f) {
+			return BoxDensity.SOLID;
+		}
+		return BoxDensity.SURFACE;
+	}
+
+	/*
+	 Densities of the lattice points origin + (x, y, z) * scale for x < dimX, y < dimY, z < dimZ,
+	 stored at densities[x + (y + z * dimY) * dimX]. The height is looked up once per (x, z) column.
+	 */
+	public static void getNoiseLattice(int originX, int originY, int originZ, int scale, int dimX, int dimY, int dimZ,
+									   float[] densities) {
+		for (int z = 0; z < dimZ; z++) {
+			int worldZ = originZ + z * scale;
+			for (int x = 0; x < dimX; x++) {
+				float terrain = getTerrainHeight(originX + x * scale, worldZ);
+				int index = x + z * dimY * dimX;
+				for (int y = 0; y < dimY; y++, index += dimX) {
+					densities[index] = getNoise(originY + y * scale, terrain);
+				}
+			}
+		}
 	}
 
 	public static float Sample(Vec3f pos) {
@@ -651,6 +756,143 @@ public class SimplexNoise { // Simplex noise in 2D, 3D and 4D
 		return noise;
 	}
 
+	/*
+	 Batch versions of Terrain, BasicFractal, RidgedMultiFractal and the 2D noise for count points in structure of arrays
+	 layout (Java 11 has no vector API). They give the same result as the scalar methods for every point, but without
+	 Vec2f and Grad objects, and the per octave constants (frequency exponent) are computed once per batch.
+	 */
+	public static void Terrain(float[] xs, float[] zs, int count, float[] out) {
+		float[] px = new float[count], py = new float[count];
+		float[] billowX = new float[count], billowY = new float[count];
+		float[] ridged = new float[count], billow = new float[count], b2 = new float[count];
+		double[] scratchX = new double[count], scratchY = new double[count], scratchNoise = new double[count];
+		for (int i = 0; i < count; i++) {
+			px[i] = xs[i] * (1.f / 2000.f);
+			py[i] = zs[i] * (1.f / 2000.f);
+			billowX[i] = px[i] * -4.33f;
+			billowY[i] = py[i] * 7.98f;
+		}
+		RidgedMultiFractal(7, 2.114352f, /*gain=*/1.5241f, /*offset=*/1.f, px, py, count, ridged, scratchX, scratchY, scratchNoise);
+		BasicFractal(4, 0.24f, 1.8754f, 0.433f, billowX, billowY, count, billow, scratchX, scratchY, scratchNoise);
+		BasicFractal(2, 0.63f, 2.2f, 0.15f, px, py, count, b2, scratchX, scratchY, scratchNoise);
+		for (int i = 0; i < count; i++) {
+			float r = VoxelHelperUtils.clamp(0.8f * ridged[i], 0.f, 1.f);
+			float b = (0.5f * (0.6f * billow[i])) + 0.5f;
+			float noise = b * r;
+			noise += ((0.6f * b2[i]) * 0.5f) + 0.5f;
+			out[i] = noise;
+		}
+	}
+
+	private static void BasicFractal(int octaves, float frequency, float lacunarity, float persistence, float[] xs, float[] ys,
+									 int count, float[] out, double[] px, double[] py, double[] octaveNoise) {
+		float SCALE = 1.0f / 128.0f;
+		float[] fx = new float[count], fy = new float[count];
+		for (int i = 0; i < count; i++) {
+			fx[i] = (xs[i] * SCALE) * frequency;
+			fy[i] = (ys[i] * SCALE) * frequency;
+			out[i] = 0.f;
+		}
+		float amplitude = 1.f;
+		for (int octave = 0; octave < octaves; octave++) {
+			for (int i = 0; i < count; i++) {
+				px[i] = fx[i];
+				py[i] = fy[i];
+			}
+			noise(px, py, octaveNoise, count);
+			for (int i = 0; i < count; i++) {
+				out[i] += octaveNoise[i] * amplitude;
+				fx[i] *= lacunarity;
+				fy[i] *= lacunarity;
+			}
+			amplitude *= persistence;
+		}
+		for (int i = 0; i < count; i++) {
+			out[i] = 0.5f + (0.5f * out[i]);
+		}
+	}
+
+	private static void RidgedMultiFractal(int octaves, float lacunarity, float gain, float offset, float[] xs, float[] ys,
+										   int count, float[] out, double[] px, double[] py, double[] octaveNoise) {
+		float[] fx = new float[count], fy = new float[count], signal = new float[count];
+		for (int i = 0; i < count; i++) {
+			fx[i] = xs[i] * NOISE_SCALE;
+			fy[i] = ys[i] * NOISE_SCALE;
+			px[i] = fx[i];
+			py[i] = fy[i];
+		}
+		noise(px, py, octaveNoise, count);
+		for (int i = 0; i < count; i++) {
+			float s = offset - Math.abs((float) octaveNoise[i]);
+			signal[i] = s * s;
+			out[i] = signal[i];
+		}
+		float frequency = 1.f;
+		for (int octave = 0; octave < octaves; octave++) {
+			for (int i = 0; i < count; i++) {
+				fx[i] *= lacunarity;
+				fy[i] *= lacunarity;
+				px[i] = fx[i];
+				py[i] = fy[i];
+			}
+			noise(px, py, octaveNoise, count);
+			float exponent = (float) Math.pow(frequency, -1.f * RIDGED_MULTI_H);
+			frequency *= lacunarity;
+			for (int i = 0; i < count; i++) {
+				float weight = VoxelHelperUtils.clamp(signal[i] * gain, 0.f, 1.f);
+				float s = offset - Math.abs((float) octaveNoise[i]);
+				s *= weight;
+				signal[i] = s;
+				out[i] += s * exponent;
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			out[i] *= (1.f / octaves);
+		}
+	}
+
+	private static final double[] GRAD3_X = new double[grad3.length];
+	private static final double[] GRAD3_Y = new double[grad3.length];
+	static {
+		for (int i = 0; i < grad3.length; i++) {
+			GRAD3_X[i] = grad3[i].x;
+			GRAD3_Y[i] = grad3[i].y;
+		}
+	}
+
+	// 2D simplex noise of count points, same as noise(double, double) for every point
+	private static void noise(double[] xs, double[] ys, double[] out, int count) {
+		for (int k = 0; k < count; k++) {
+			double xin = xs[k], yin = ys[k];
+			double s = (xin + yin) * F2;
+			int i = fastfloor(xin + s);
+			int j = fastfloor(yin + s);
+			double t = (i + j) * G2;
+			double x0 = xin - (i - t);
+			double y0 = yin - (j - t);
+			int i1 = x0 > y0 ? 1 : 0;
+			int j1 = 1 - i1;
+			double x1 = x0 - i1 + G2;
+			double y1 = y0 - j1 + G2;
+			double x2 = x0 - 1.0 + 2.0 * G2;
+			double y2 = y0 - 1.0 + 2.0 * G2;
+			int ii = i & 255;
+			int jj = j & 255;
+			int gi0 = permMod12[ii + perm[jj]];
+			int gi1 = permMod12[ii + i1 + perm[jj + j1]];
+			int gi2 = permMod12[ii + 1 + perm[jj + 1]];
+
+			double t0 = 0.5 - x0 * x0 - y0 * y0;
+			double t1 = 0.5 - x1 * x1 - y1 * y1;
+			double t2 = 0.5 - x2 * x2 - y2 * y2;
+			double s0 = t0 * t0, s1 = t1 * t1, s2 = t2 * t2;
+			double n0 = t0 < 0 ? 0.0 : s0 * s0 * (GRAD3_X[gi0] * x0 + GRAD3_Y[gi0] * y0);
+			double n1 = t1 < 0 ? 0.0 : s1 * s1 * (GRAD3_X[gi1] * x1 + GRAD3_Y[gi1] * y1);
+			double n2 = t2 < 0 ? 0.0 : s2 * s2 * (GRAD3_X[gi2] * x2 + GRAD3_Y[gi2] * y2);
+			out[k] = 70.0 * (n0 + n1 + n2);
+		}
+	}
+
 	/////////from opencl noise translated to java//////////////////////////////////////////////////////////////
 	static char perm2d[] = {151,160,137,91,90,15,
 			131,13,201,95,96,53,194,233,7,225,140,36,103,30,69,142,8,99,37,240,21,10,23,
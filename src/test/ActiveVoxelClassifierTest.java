@@ -0,0 +1,177 @@
+package test;
+
+import core.math.Vec3i;
+import dc.impl.ActiveVoxelClassifier;
+import dc.impl.CPUDensityField;
+import dc.impl.HermiteEdgeStore;
+import dc.impl.MeshGenerationContext;
+
+import java.util.Random;
+
+import static dc.VoxelOctree.CHILD_MIN_OFFSETS;
+import static dc.VoxelOctree.edgevmap;
+
+/*
+ Compares ActiveVoxelClassifier with the Vec3i based FindActiveVoxels loop it replaced.
+ */
+public class ActiveVoxelClassifierTest {
+    static MeshGenerationContext meshGen = new MeshGenerationContext(32);
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        boolean equalsFlag = true;
+        for (int test = 0; test < 8; test++) {
+            CPUDensityField field = createField(random, test);
+            int voxelCount = meshGen.getVoxelsPerChunk() * meshGen.getVoxelsPerChunk() * meshGen.getVoxelsPerChunk();
+
+            int[] occupancy = new int[voxelCount], edgeInfo = new int[voxelCount], positions = new int[voxelCount], materials = new int[voxelCount];
+            int size = referenceFindActiveVoxels(field, occupancy, edgeInfo, positions, materials);
+
+            int[] occupancy2 = new int[voxelCount], edgeInfo2 = new int[voxelCount], positions2 = new int[voxelCount], materials2 = new int[voxelCount];
+            ActiveVoxelClassifier classifier = new ActiveVoxelClassifier(meshGen);
+            int size2 = 0;
+            int threadBound = voxelCount / 3;       // classify in uneven ranges as the thread split does
+            for (int from = 0; from < voxelCount; from += threadBound) {
+                size2 += classifier.classify(from, Math.min(voxelCount, from + threadBound), field,
+                        occupancy2, edgeInfo2, positions2, materials2);
+            }
+
+            if (size != size2) {
+                System.out.println("test " + test + ": active voxel count not equals " + size + " != " + size2);
+                equalsFlag = false;
+            }
+            for (int i = 0; i < voxelCount; i++) {
+                if (occupancy[i] != occupancy2[i] || edgeInfo[i] != edgeInfo2[i] ||
+                        positions[i] != positions2[i] || materials[i] != materials2[i]) {
+                    System.out.println("test " + test + ": voxel not equals in index " + i);
+                    equalsFlag = false;
+                    break;
+                }
+            }
+        }
+        if (equalsFlag) {
+            System.out.println("classified voxels are equals");
+        }
+    }
+
+    private static CPUDensityField createField(Random random, int test) {
+        int fieldSize = meshGen.getFieldSize();
+        CPUDensityField field = new CPUDensityField();
+        field.min = new Vec3i(0);
+        field.size = meshGen.getVoxelsPerChunk();
+        field.materials = new int[fieldSize * fieldSize * fieldSize];
+        field.hermiteEdges = new HermiteEdgeStore(meshGen);
+
+        // wavy surface plus random material noise, later tests are noisier
+        float noise = test / 16.f;
+        for (int z = 0; z < fieldSize; z++) {
+            for (int y = 0; y < fieldSize; y++) {
+                for (int x = 0; x < fieldSize; x++) {
+                    boolean solid = y < 12 + 6 * Math.sin(x * 0.3 + test) * Math.cos(z * 0.2);
+                    if (random.nextFloat() < noise) {
+                        solid = !solid;
+                    }
+                    field.materials[meshGen.getMaterialIndex(x, y, z)] = solid ? meshGen.MATERIAL_SOLID : meshGen.MATERIAL_AIR;
+                }
+            }
+        }
+        int hermiteSize = meshGen.getHermiteIndexSize();
+        for (int z = 0; z < hermiteSize; z++) {
+            for (int y = 0; y < hermiteSize; y++) {
+                for (int x = 0; x < hermiteSize; x++) {
+                    int m0 = field.materials[meshGen.getMaterialIndex(x, y, z)];
+                    for (int axis = 0; axis < 3; axis++) {
+                        int m1 = field.materials[meshGen.getMaterialIndex(x + (axis == 0 ? 1 : 0), y + (axis == 1 ? 1 : 0), z + (axis == 2 ? 1 : 0))];
+                        if (m0 != m1 || random.nextInt(100) == 0) {
+                            field.hermiteEdges.put(meshGen.getEdgeCodeByPos(x, y, z, axis), 0.f, 1.f, 0.f, 0.5f);
+                        }
+                    }
+                }
+            }
+        }
+        return field;
+    }
+
+    // FindActiveVoxels of LevenLinearCPUOctreeImpl before ActiveVoxelClassifier
+    private static int referenceFindActiveVoxels(CPUDensityField field,
+                                                 int[] voxelOccupancy, int[] voxelEdgeInfo, int[] voxelPositions, int[] voxelMaterials) {
+        int size = 0;
+        for (int k = 0; k < voxelMaterials.length; k++) {
+            int indexShift = (int) (Math.log(meshGen.getVoxelsPerChunk()) / Math.log(2));
+            int x = (k >> (indexShift * 0)) & meshGen.getVoxelsPerChunk() - 1;
+            int y = (k >> (indexShift * 1)) & meshGen.getVoxelsPerChunk() - 1;
+            int z = (k >> (indexShift * 2)) & meshGen.getVoxelsPerChunk() - 1;
+
+            int index = x + (y * meshGen.getVoxelsPerChunk()) + (z * meshGen.getVoxelsPerChunk() * meshGen.getVoxelsPerChunk());
+            Vec3i pos = new Vec3i(x, y, z);
+
+            int[] cornerMaterials = new int[8];
+            int cornerValues = 0;
+            for (int i = 0; i < 8; i++) {
+                cornerMaterials[i] = field.materials[meshGen.getMaterialIndex(pos.add(CHILD_MIN_OFFSETS[i]))];
+                cornerValues |= (((cornerMaterials[i]) == meshGen.MATERIAL_AIR ? 0 : 1) << i);
+            }
+
+            int edgeList = 0;
+            int edgeCount = 0;
+            for (int i = 0; i < 12; i++) {
+                int axis = i / 4;
+                Vec3i hermiteIndexPosition = pos.add(CHILD_MIN_OFFSETS[edgevmap[i][0]]);
+                int edgeIndex = (meshGen.encodeVoxelIndex(hermiteIndexPosition) << 2) | axis;
+                if (field.hermiteEdges.contains(edgeIndex)) {
+                    edgeList |= (1 << i);
+                    edgeCount++;
+                }
+            }
+            if (edgeCount > 0) {
+                ++size;
+            }
+            voxelOccupancy[index] = edgeCount > 0 ? 1 : 0;
+            voxelPositions[index] = meshGen.codeForPosition(pos);
+            voxelEdgeInfo[index] = edgeList;
+            voxelMaterials[index] = (findDominantMaterial(cornerMaterials) << 8) | cornerValues;
+        }
+        return size;
+    }
+
+    private static int findDominantMaterial(int[] mv) {
+        int MATERIAL_NONE = 200;
+        int MATERIAL_AIR  = 201;
+
+        int[] data = mv.clone();
+        for (int i = 1; i < 8; i++) {
+            int tmp = data[i];
+            int j;
+            for (j = i; j >= 1 && tmp < data[j-1]; j--) {
+                data[j] = data[j-1];
+            }
+            data[j] = tmp;
+        }
+
+        int current = data[0];
+        int count = 1;
+        int maxCount = 0;
+        int maxMaterial = 0;
+        for (int i = 1; i < 8; i++) {
+            int m = data[i];
+            if (m == MATERIAL_AIR || m == MATERIAL_NONE) {
+                continue;
+            }
+            if (current != m) {
+                if (count > maxCount) {
+                    maxCount = count;
+                    maxMaterial = current;
+                }
+                current = m;
+                count = 1;
+            }
+            else {
+                count++;
+            }
+        }
+        if (count > maxCount) {
+            maxMaterial = current;
+        }
+        return maxMaterial;
+    }
+}
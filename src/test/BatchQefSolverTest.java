@@ -0,0 +1,112 @@
+package test;
+
+import core.math.Vec3f;
+import core.math.Vec4f;
+import dc.solver.BatchQefSolver;
+import dc.solver.LevenQefSolver;
+import dc.solver.QEFData;
+
+import java.util.Random;
+
+/*
+ Compares BatchQefSolver with LevenQefSolver.solve on random leaves and on degenerate ones:
+ planar and edge leaves (rank deficient ATA), leaves with zero normals and leaves without mass points.
+ */
+public class BatchQefSolverTest {
+    private static final int LEAF_COUNT = 20000;
+    private static final float TOLERANCE = 1e-4f;
+    private static final String[] LEAF_TYPES = {"random", "planar", "edge", "zero normals", "no mass points", "far"};
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        float[] ata = new float[LEAF_COUNT * BatchQefSolver.ATA_STRIDE];
+        float[] atb = new float[LEAF_COUNT * BatchQefSolver.ATB_STRIDE];
+        float[] massPoints = new float[LEAF_COUNT * BatchQefSolver.MASS_POINT_STRIDE];
+        float[] positions = new float[LEAF_COUNT * BatchQefSolver.POSITION_STRIDE];
+        Vec4f[] expectedPositions = new Vec4f[LEAF_COUNT];
+        Vec4f[] expectedMassPoints = new Vec4f[LEAF_COUNT];
+
+        LevenQefSolver solver = new LevenQefSolver();
+        for (int leaf = 0; leaf < LEAF_COUNT; leaf++) {
+            QEFData qef = new QEFData(solver);
+            addLeaf(random, leaf % LEAF_TYPES.length, leaf, qef, ata, atb, massPoints);
+            expectedPositions[leaf] = solver.solve(qef.mat3x3_tri_ATA, qef.atb, qef.massPoint);
+            expectedMassPoints[leaf] = qef.massPoint;
+        }
+
+        BatchQefSolver batchSolver = new BatchQefSolver();
+        int step = LEAF_COUNT / 3;      // solve in uneven ranges as the thread split does
+        for (int from = 0; from < LEAF_COUNT; from += step) {
+            batchSolver.solve(ata, atb, massPoints, positions, from, Math.min(LEAF_COUNT, from + step));
+        }
+
+        boolean equalsFlag = true;
+        int exact = 0;
+        for (int leaf = 0; leaf < LEAF_COUNT; leaf++) {
+            Vec4f pos = expectedPositions[leaf];
+            Vec4f mass = expectedMassPoints[leaf];
+            int p = leaf * BatchQefSolver.POSITION_STRIDE;
+            int m = leaf * BatchQefSolver.MASS_POINT_STRIDE;
+            if (!close(pos.x, positions[p]) || !close(pos.y, positions[p + 1]) || !close(pos.z, positions[p + 2])) {
+                System.out.println(LEAF_TYPES[leaf % LEAF_TYPES.length] + " leaf " + leaf + ": position not equals " + pos
+                        + " != " + positions[p] + " " + positions[p + 1] + " " + positions[p + 2]);
+                equalsFlag = false;
+            }
+            if (!close(mass.x, massPoints[m]) || !close(mass.y, massPoints[m + 1]) || !close(mass.z, massPoints[m + 2])
+                    || !close(mass.w, massPoints[m + 3])) {
+                System.out.println(LEAF_TYPES[leaf % LEAF_TYPES.length] + " leaf " + leaf + ": mass point not equals " + mass
+                        + " != " + massPoints[m] + " " + massPoints[m + 1] + " " + massPoints[m + 2] + " " + massPoints[m + 3]);
+                equalsFlag = false;
+            }
+            if (pos.x == positions[p] && pos.y == positions[p + 1] && pos.z == positions[p + 2]) {
+                exact++;
+            }
+        }
+        if (equalsFlag) {
+            System.out.println("solved positions are equals, " + exact + " of " + LEAF_COUNT + " bit-identical");
+        }
+    }
+
+    // fills the batch arrays of the leaf and the QEFData for LevenQefSolver with the same points
+    private static void addLeaf(Random random, int type, int leaf, QEFData qef, float[] ata, float[] atb, float[] massPoints) {
+        if (type == 4) {
+            // accumulators without points, ATA and ATb still set
+            int a = leaf * BatchQefSolver.ATA_STRIDE;
+            for (int i = 0; i < BatchQefSolver.ATA_STRIDE; i++) {
+                ata[a + i] = qef.mat3x3_tri_ATA[i] = random.nextFloat() * 2.f;
+            }
+            int b = leaf * BatchQefSolver.ATB_STRIDE;
+            atb[b] = qef.atb.x = random.nextFloat() * 2.f - 1.f;
+            atb[b + 1] = qef.atb.y = random.nextFloat() * 2.f - 1.f;
+            atb[b + 2] = qef.atb.z = random.nextFloat() * 2.f - 1.f;
+            return;
+        }
+        Vec3f planeNormal = randomNormal(random);
+        Vec3f edgeNormal = randomNormal(random);
+        float offset = type == 5 ? 1000.f : 0.f;
+        int pointCount = 1 + random.nextInt(12);
+        for (int i = 0; i < pointCount; i++) {
+            Vec3f p = new Vec3f(offset + random.nextFloat(), offset + random.nextFloat(), offset + random.nextFloat());
+            Vec3f n;
+            switch (type) {
+                case 1: n = planeNormal; break;
+                case 2: n = (i & 1) == 0 ? planeNormal : edgeNormal; break;
+                case 3: n = new Vec3f(0.f, 0.f, 0.f); break;
+                default: n = randomNormal(random); break;
+            }
+            BatchQefSolver.addPoint(ata, atb, massPoints, leaf, p.X, p.Y, p.Z, n.X, n.Y, n.Z);
+            qef.qef_add_point(p, n);
+        }
+    }
+
+    private static Vec3f randomNormal(Random random) {
+        return new Vec3f(random.nextFloat() * 2.f - 1.f, random.nextFloat() * 2.f - 1.f, random.nextFloat() * 2.f - 1.f).normalize();
+    }
+
+    private static boolean close(float expected, float actual) {
+        if (Float.isNaN(expected) || Float.isNaN(actual)) {
+            return Float.isNaN(expected) && Float.isNaN(actual);
+        }
+        return Math.abs(expected - actual) <= TOLERANCE * Math.max(1.f, Math.abs(expected));
+    }
+}
@@ -0,0 +1,539 @@
+package test;
+
+import core.math.Vec3f;
+import core.math.Vec3i;
+import core.utils.BufferUtil;
+import dc.*;
+import dc.entities.BorderNodes;
+import dc.entities.MeshBuffer;
+import dc.entities.MeshVertex;
+import dc.impl.MeshGenerationContext;
+import dc.utils.Aabb;
+
+import java.util.*;
+
+import static dc.DualContouring.*;
+import static dc.OctreeNodeType.Node_Internal;
+import static dc.OctreeNodeType.Node_Leaf;
+import static dc.VoxelOctree.CHILD_MIN_OFFSETS;
+import static dc.VoxelOctree.edgevmap;
+
+/*
+ Compares LinearSeamMesher with the pointer octree mesher it replaced, kept below as PointerSeamMesher. The seam nodes
+ are selected as ChunksManager does from random neighbourhoods of a chunk: neighbours of the chunk size, neighbours split
+ into smaller chunks and bigger neighbours which straddle the chunk boundaries of the seam root, so the leaves have mixed
+ LOD sizes. Vertex and index buffers must be the same, for seams and for isSeam false.
+ */
+public class LinearSeamMesherTest {
+    private static final int VOXELS_PER_CHUNK = 8;
+    private static final int CHUNK_SIZE = 64;
+    private static final int SEAM_COUNT = 500;
+    static MeshGenerationContext meshGen = new MeshGenerationContext(VOXELS_PER_CHUNK);
+
+    // a border node selected for the seam, node i of the border nodes of chunk
+    private static class SeamNode {
+        final Vec3i min;
+        final ChunkNode chunk;
+        final int i;
+
+        SeamNode(Vec3i min, ChunkNode chunk, int i) {
+            this.min = min;
+            this.chunk = chunk;
+            this.i = i;
+        }
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        boolean equalsFlag = true;
+        int seamTriangles = 0, meshTriangles = 0, leafSizes = 0;
+        for (int seam = 0; seam < SEAM_COUNT; seam++) {
+            ChunkNode node = createChunk(new Vec3i(random.nextInt(8) - 4, random.nextInt(8) - 4, random.nextInt(8) - 4).mul(CHUNK_SIZE), CHUNK_SIZE);
+            Map<ChunkNode, Integer> neighbours = createNeighbours(random, node);
+            List<SeamNode> seamNodes = new ArrayList<>();
+            Set<Integer> sizes = new HashSet<>();
+            for (Map.Entry<ChunkNode, Integer> neighbour : neighbours.entrySet()) {
+                if (neighbour.getKey().chunkBorderNodes == null) {
+                    neighbour.getKey().chunkBorderNodes = createBorderNodes(random, neighbour.getKey());
+                }
+                selectSeamNodes(node, neighbour.getKey(), neighbour.getValue(), seamNodes);
+                sizes.add(neighbour.getKey().chunkBorderNodes.leafSize);
+            }
+            if (seamNodes.isEmpty()) {
+                continue;
+            }
+            leafSizes = Math.max(leafSizes, sizes.size());
+
+            for (boolean isSeam : new boolean[]{true, false}) {
+                MeshBuffer expected = new MeshBuffer();
+                new PointerSeamMesher(meshGen.MATERIAL_AIR).processNodesToMesh(createPointerNodes(seamNodes), node.min, node.size, isSeam, expected);
+
+                MeshBuffer actual = new MeshBuffer();
+                LinearSeamMesher mesher = new LinearSeamMesher(node.min, node.size, meshGen.MATERIAL_AIR, 16);
+                for (SeamNode seamNode : seamNodes) {
+                    BorderNodes borderNodes = seamNode.chunk.chunkBorderNodes;
+                    if (isSeam) {
+                        // as ChunksManager adds them
+                        mesher.addNode(seamNode.min.x, seamNode.min.y, seamNode.min.z, seamNode.chunk, borderNodes, seamNode.i);
+                    } else {
+                        // as AbstractDualContouring.processNodesToMesh adds them
+                        mesher.addNode(seamNode.min, borderNodes.leafSize, borderNodes.corners[seamNode.i], seamNode.chunk,
+                                position(borderNodes.positions, seamNode.i), position(borderNodes.normals, seamNode.i),
+                                borderNodes.getColor(seamNode.i));
+                    }
+                }
+                mesher.generate(isSeam, actual);
+
+                if (!equals(expected, actual)) {
+                    System.out.println("seam " + seam + " of " + node + (isSeam ? "" : " as isSeam false") + ": meshes not equals, "
+                            + expected.getNumVertices() + " vertices " + expected.getNumIndicates() + " indices != "
+                            + actual.getNumVertices() + " vertices " + actual.getNumIndicates() + " indices");
+                    equalsFlag = false;
+                }
+                if (isSeam) {
+                    seamTriangles += expected.getNumIndicates() / 3;
+                } else {
+                    meshTriangles += expected.getNumIndicates() / 3;
+                }
+            }
+        }
+        if (equalsFlag) {
+            System.out.println("seam meshes are equals, " + seamTriangles + " seam triangles, " + meshTriangles
+                    + " triangles as isSeam false, up to " + leafSizes + " leaf sizes in a seam");
+        }
+    }
+
+    private static ChunkNode createChunk(Vec3i min, int size) {
+        ChunkNode chunk = new ChunkNode();
+        chunk.min = min;
+        chunk.size = size;
+        chunk.active = true;
+        return chunk;
+    }
+
+    /*
+     Active chunks at the 8 neighbour positions of node with the bits of the positions they are found at, as
+     ChunksManager.findSeamNeighbours. A neighbour position is empty, a chunk of the size of node, 8 chunks of half its
+     size or a part of a chunk of twice its size. The bigger chunks are found at several positions.
+     */
+    private static Map<ChunkNode, Integer> createNeighbours(Random random, ChunkNode node) {
+        Map<ChunkNode, Integer> neighbours = new LinkedHashMap<>();
+        Map<Vec3i, ChunkNode> bigChunks = new HashMap<>();
+        for (int i = 1; i < 8; i++) {
+            if (random.nextInt(3) == 0) {
+                Vec3i bigMin = alignDown(node.min.add(CHILD_MIN_OFFSETS[i].mul(node.size)), node.size * 2);
+                if (!bigMin.equals(alignDown(node.min, node.size * 2))) {
+                    bigChunks.computeIfAbsent(bigMin, min -> createChunk(min, node.size * 2));
+                }
+            }
+        }
+        neighbours.put(node, 1);
+        for (int i = 1; i < 8; i++) {
+            Vec3i neighbourMin = node.min.add(CHILD_MIN_OFFSETS[i].mul(node.size));
+            ChunkNode bigChunk = bigChunks.get(alignDown(neighbourMin, node.size * 2));
+            if (bigChunk != null) {
+                neighbours.merge(bigChunk, 1 << i, (a, b) -> a | b);
+                continue;
+            }
+            switch (random.nextInt(4)) {
+                case 0:
+                    break;
+                case 1:
+                    for (int j = 0; j < 8; j++) {
+                        neighbours.put(createChunk(neighbourMin.add(CHILD_MIN_OFFSETS[j].mul(node.size / 2)), node.size / 2), 1 << i);
+                    }
+                    break;
+                default:
+                    neighbours.put(createChunk(neighbourMin, node.size), 1 << i);
+            }
+        }
+        return neighbours;
+    }
+
+    private static Vec3i alignDown(Vec3i p, int size) {
+        return new Vec3i(p.x - Math.floorMod(p.x, size), p.y - Math.floorMod(p.y, size), p.z - Math.floorMod(p.z, size));
+    }
+
+    // random active leaves on the faces of the chunk, some of them completely inside or outside the volume
+    private static BorderNodes createBorderNodes(Random random, ChunkNode chunk) {
+        int leafSize = chunk.size / VOXELS_PER_CHUNK;
+        List<Vec3i> leaves = new ArrayList<>();
+        for (int x = 0; x < VOXELS_PER_CHUNK; x++) {
+            for (int y = 0; y < VOXELS_PER_CHUNK; y++) {
+                for (int z = 0; z < VOXELS_PER_CHUNK; z++) {
+                    boolean border = x == 0 || y == 0 || z == 0 || x == VOXELS_PER_CHUNK - 1 || y == VOXELS_PER_CHUNK - 1 || z == VOXELS_PER_CHUNK - 1;
+                    if (border && random.nextInt(10) < 7) {
+                        leaves.add(new Vec3i(x, y, z));
+                    }
+                }
+            }
+        }
+        BorderNodes nodes = new BorderNodes(chunk.min, leafSize, new Vec3f(random.nextFloat(), random.nextFloat(), random.nextFloat()), leaves.size());
+        for (int i = 0; i < nodes.size; i++) {
+            Vec3i leaf = leaves.get(i);
+            nodes.codes[i] = meshGen.codeForPosition(leaf);
+            nodes.corners[i] = random.nextInt(256);
+            for (int j = 0; j < 3; j++) {
+                int p = j == 0 ? leaf.x : j == 1 ? leaf.y : leaf.z;
+                nodes.positions[i * 3 + j] = (p + random.nextFloat()) * leafSize;
+                nodes.normals[i * 3 + j] = random.nextFloat() * 2.f - 1.f;
+            }
+        }
+        return nodes;
+    }
+
+    // the border nodes of neighbour in the seam of node, as ChunksManager.selectSeamNodes
+    private static void selectSeamNodes(ChunkNode node, ChunkNode neighbour, int neighbourIndices, List<SeamNode> seamNodes) {
+        BorderNodes borderNodes = neighbour.chunkBorderNodes;
+        Vec3i chunkMax = node.min.add(node.size);
+        Aabb aabb = new Aabb(node.min, node.size * 2);
+        int leafSize = borderNodes.leafSize;
+        for (int i = 0; i < borderNodes.size; i++) {
+            Vec3i min = meshGen.positionForCode(borderNodes.codes[i]);
+            min.x = min.x * leafSize + borderNodes.chunkMin.x;
+            min.y = min.y * leafSize + borderNodes.chunkMin.y;
+            min.z = min.z * leafSize + borderNodes.chunkMin.z;
+            if (!aabb.pointIsInside(min)) {
+                continue;
+            }
+            Vec3i max = min.add(leafSize);
+            for (int neighbourIndex = 0; neighbourIndex < 8; neighbourIndex++) {
+                if ((neighbourIndices & (1 << neighbourIndex)) != 0 && filterSeamNode(neighbourIndex, chunkMax, min, max)) {
+                    seamNodes.add(new SeamNode(min, neighbour, i));
+                    break;
+                }
+            }
+        }
+    }
+
+    private static boolean filterSeamNode(int childIndex, Vec3i seamBounds, Vec3i min, Vec3i max) {
+        switch (childIndex) {
+            case 0: return max.x == seamBounds.x || max.y == seamBounds.y || max.z == seamBounds.z;
+            case 1: return min.z == seamBounds.z;
+            case 2: return min.y == seamBounds.y;
+            case 3: return min.y == seamBounds.y || min.z == seamBounds.z;
+            case 4: return min.x == seamBounds.x;
+            case 5: return min.x == seamBounds.x || min.z == seamBounds.z;
+            case 6: return min.x == seamBounds.x || min.y == seamBounds.y;
+            case 7: return min.equals(seamBounds);
+        }
+        return false;
+    }
+
+    private static List<OctreeNode> createPointerNodes(List<SeamNode> seamNodes) {
+        List<OctreeNode> nodes = new ArrayList<>();
+        for (SeamNode seamNode : seamNodes) {
+            BorderNodes borderNodes = seamNode.chunk.chunkBorderNodes;
+            PointerBasedOctreeNode node = new PointerBasedOctreeNode(seamNode.min, borderNodes.leafSize, OctreeNodeType.Node_Leaf);
+            node.corners = borderNodes.corners[seamNode.i];
+            node.setChunk(seamNode.chunk);
+            node.drawInfo.position = position(borderNodes.positions, seamNode.i);
+            node.drawInfo.averageNormal = position(borderNodes.normals, seamNode.i);
+            node.drawInfo.color = borderNodes.getColor(seamNode.i);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static Vec3f position(float[] values, int i) {
+        return new Vec3f(values[i * 3], values[i * 3 + 1], values[i * 3 + 2]);
+    }
+
+    private static boolean equals(MeshBuffer expected, MeshBuffer actual) {
+        if (expected.getNumVertices() != actual.getNumVertices() || expected.getNumIndicates() != actual.getNumIndicates()) {
+            return false;
+        }
+        return expected.getVertices().equals(actual.getVertices()) && expected.getIndicates().equals(actual.getIndicates());
+    }
+
+    /*
+     The seam mesher of AbstractDualContouring before LinearSeamMesher: the pointer octree is built upwards from the
+     nodes through a HashMap and contoured with the cell/face/edge recursion.
+     */
+    private static class PointerSeamMesher {
+        private final int materialAir;
+
+        PointerSeamMesher(int materialAir) {
+            this.materialAir = materialAir;
+        }
+
+        private List<OctreeNode> constructParents(List<OctreeNode> nodes, Vec3i rootMin, int parentSize) {
+            Map<Vec3i, OctreeNode> parentsHash = new HashMap<>();
+            for (OctreeNode node : nodes) {
+                Vec3i localPos = node.min.sub(rootMin);
+                Vec3i parentPos = node.min.sub(new Vec3i(localPos.x % parentSize, localPos.y % parentSize, localPos.z % parentSize));
+                OctreeNode parent = parentsHash.get(parentPos);
+                if (parent == null) {
+                    parent = new PointerBasedOctreeNode(parentPos, parentSize, OctreeNodeType.Node_Internal);
+                    parentsHash.put(parentPos, parent);
+                }
+                for (int j = 0; j < 8; j++) {
+                    Vec3i childMin = parentPos.add(CHILD_MIN_OFFSETS[j].mul(parentSize / 2));
+                    if (childMin.equals(node.min)) {
+                        parent.children[j] = node;
+                        node.child_index = j;
+                        break;
+                    }
+                }
+            }
+            return new ArrayList<>(parentsHash.values());
+        }
+
+        private OctreeNode constructTreeUpwards(List<OctreeNode> inputNodes, Vec3i rootMin, int rootNodeSize) {
+            List<OctreeNode> sortedNodes = new ArrayList<>(inputNodes);
+            sortedNodes.sort(Comparator.comparingInt((OctreeNode lhs) -> lhs.size));
+            while (sortedNodes.get(0).size != sortedNodes.get(sortedNodes.size() - 1).size) {
+                int iter = 0;
+                int size = sortedNodes.get(iter).size;
+                do {
+                    ++iter;
+                } while (sortedNodes.get(iter).size == size);
+
+                List<OctreeNode> newNodes = constructParents(sortedNodes.subList(0, iter), rootMin, size * 2);
+                newNodes.addAll(sortedNodes.subList(iter, sortedNodes.size()));
+                sortedNodes.clear();
+                sortedNodes.addAll(newNodes);
+                newNodes.clear();
+            }
+
+            int parentSize = (sortedNodes.get(0).size) * 2;
+            while (parentSize <= rootNodeSize * 2) {
+                sortedNodes = constructParents(sortedNodes, rootMin, parentSize);
+                parentSize *= 2;
+            }
+            if (sortedNodes.size() != 1) {
+                throw new IllegalStateException("Incorrect octree!");
+            }
+            if (!rootMin.equals(sortedNodes.get(0).min)) {
+                throw new IllegalStateException("returned root not equal to input root!");
+            }
+            return sortedNodes.get(0);
+        }
+
+        private void ContourProcessEdge(OctreeNode[] node, int dir, List<Integer> indexBuffer) {
+            int minSize = 1000000;		// arbitrary big number
+            int minIndex = 0;
+            int[] indices = {-1, -1, -1, -1};
+            boolean flip = false;
+            boolean[] signChange = {false, false, false, false};
+
+            for (int i = 0; i < 4; i++) {
+                if (node[i].Type != Node_Internal) {
+                    int edge = processEdgeMask[dir][i];
+                    int c0 = edgevmap[edge][0];
+                    int c1 = edgevmap[edge][1];
+                    int m0 = (node[i].corners >> c0) & 1;
+                    int m1 = (node[i].corners >> c1) & 1;
+
+                    if (node[i].size < minSize) {
+                        minSize = node[i].size;
+                        minIndex = i;
+                        flip = m1 != 1;
+                    }
+
+                    indices[i] = node[i].index;
+                    signChange[i] = (m0 == materialAir && m1 != materialAir) || (m0 != materialAir && m1 == materialAir);
+                }
+            }
+
+            if (!signChange[minIndex]) {
+                return;
+            }
+
+            if (!flip) {
+                indexBuffer.add(indices[0]);
+                indexBuffer.add(indices[1]);
+                indexBuffer.add(indices[3]);
+
+                indexBuffer.add(indices[0]);
+                indexBuffer.add(indices[3]);
+                indexBuffer.add(indices[2]);
+            } else {
+                indexBuffer.add(indices[0]);
+                indexBuffer.add(indices[3]);
+                indexBuffer.add(indices[1]);
+
+                indexBuffer.add(indices[0]);
+                indexBuffer.add(indices[2]);
+                indexBuffer.add(indices[3]);
+            }
+        }
+
+        private Vec3i chunkMinForPosition(Vec3i min, int size) {
+            int mask = ~(size - 1);
+            return new Vec3i(min.x & mask, min.y & mask, min.z & mask);
+        }
+
+        private void ContourEdgeProc(OctreeNode[] node, int dir, List<Integer> buffer, boolean isSeam, int chunkSize) {
+            if (node[0] == null || node[1] == null || node[2] == null || node[3] == null) {
+                return;
+            }
+
+            if (isSeam) {
+                Set<Vec3i> chunks = new HashSet<>();
+                for (int i = 0; i < 4; i++) {
+                    chunks.add(chunkMinForPosition(node[i].min, chunkSize));
+                }
+                if (chunks.size() == 1)
+                    return;
+            }
+
+            boolean[] isBranch = {
+                    node[0].Type == Node_Internal,
+                    node[1].Type == Node_Internal,
+                    node[2].Type == Node_Internal,
+                    node[3].Type == Node_Internal,
+            };
+
+            if (!isBranch[0] && !isBranch[1] && !isBranch[2] && !isBranch[3]) {
+                if (isSeam &&
+                        (node[0].getChunk().equals(node[1].getChunk()) &&
+                                node[1].getChunk().equals(node[2].getChunk()) &&
+                                node[2].getChunk().equals(node[3].getChunk()))
+                ) {
+                    return;
+                }
+                ContourProcessEdge(node, dir, buffer);
+            } else {
+                for (int i = 0; i < 2; i++) {
+                    OctreeNode[] edgeNodes = new PointerBasedOctreeNode[4];
+                    int[] c = {
+                            edgeProcEdgeMask[dir][i][0],
+                            edgeProcEdgeMask[dir][i][1],
+                            edgeProcEdgeMask[dir][i][2],
+                            edgeProcEdgeMask[dir][i][3],
+                    };
+
+                    for (int j = 0; j < 4; j++) {
+                        if (!isBranch[j]) {
+                            edgeNodes[j] = node[j];
+                        } else {
+                            edgeNodes[j] = node[j].children[c[j]];
+                        }
+                    }
+
+                    ContourEdgeProc(edgeNodes, edgeProcEdgeMask[dir][i][4], buffer, isSeam, chunkSize);
+                }
+            }
+        }
+
+        private void ContourFaceProc(OctreeNode[] node, int dir, List<Integer> buffer, boolean isSeam, int chunkSize) {
+            if (node[0] == null || node[1] == null) {
+                return;
+            }
+
+            if (isSeam && chunkMinForPosition(node[0].min, chunkSize).equals(chunkMinForPosition(node[1].min, chunkSize))) {
+                return;
+            }
+
+            boolean[] isBranch = {
+                    node[0].Type == Node_Internal,
+                    node[1].Type == Node_Internal,
+            };
+
+            if (isBranch[0] || isBranch[1]) {
+                for (int i = 0; i < 4; i++) {
+                    OctreeNode[] faceNodes = new PointerBasedOctreeNode[2];
+                    int[] c = {
+                            faceProcFaceMask[dir][i][0], faceProcFaceMask[dir][i][1],
+                    };
+
+                    for (int j = 0; j < 2; j++) {
+                        if (!isBranch[j]) {
+                            faceNodes[j] = node[j];
+                        } else {
+                            faceNodes[j] = node[j].children[c[j]];
+                        }
+                    }
+                    ContourFaceProc(faceNodes, faceProcFaceMask[dir][i][2], buffer, isSeam, chunkSize);
+                }
+
+                int[][] orders = {
+                        {0, 0, 1, 1},
+                        {0, 1, 0, 1},
+                };
+
+                for (int i = 0; i < 4; i++) {
+                    OctreeNode[] edgeNodes = new PointerBasedOctreeNode[4];
+                    int[] c = {
+                            faceProcEdgeMask[dir][i][1],
+                            faceProcEdgeMask[dir][i][2],
+                            faceProcEdgeMask[dir][i][3],
+                            faceProcEdgeMask[dir][i][4],
+                    };
+
+                    int[] order = orders[faceProcEdgeMask[dir][i][0]];
+                    for (int j = 0; j < 4; j++) {
+                        if (!isBranch[order[j]]) {
+                            edgeNodes[j] = node[order[j]];
+                        } else {
+                            edgeNodes[j] = node[order[j]].children[c[j]];
+                        }
+                    }
+
+                    ContourEdgeProc(edgeNodes, faceProcEdgeMask[dir][i][5], buffer, isSeam, chunkSize);
+                }
+            }
+        }
+
+        private void ContourCellProc(OctreeNode node, List<Integer> buffer, boolean isSeam, int chunkSize) {
+            if (node == null || node.Type == Node_Leaf) {
+                return;
+            }
+
+            for (int i = 0; i < 8; i++) {
+                ContourCellProc(node.children[i], buffer, isSeam, chunkSize);
+            }
+
+            for (int i = 0; i < 12; i++) {
+                OctreeNode[] faceNodes = new PointerBasedOctreeNode[2];
+                int[] c = {cellProcFaceMask[i][0], cellProcFaceMask[i][1]};
+
+                faceNodes[0] = node.children[c[0]];
+                faceNodes[1] = node.children[c[1]];
+
+                ContourFaceProc(faceNodes, cellProcFaceMask[i][2], buffer, isSeam, chunkSize);
+            }
+
+            for (int i = 0; i < 6; i++) {
+                OctreeNode[] edgeNodes = new PointerBasedOctreeNode[4];
+                int[] c = {cellProcEdgeMask[i][0], cellProcEdgeMask[i][1], cellProcEdgeMask[i][2], cellProcEdgeMask[i][3]};
+
+                for (int j = 0; j < 4; j++) {
+                    edgeNodes[j] = node.children[c[j]];
+                }
+
+                ContourEdgeProc(edgeNodes, cellProcEdgeMask[i][4], buffer, isSeam, chunkSize);
+            }
+        }
+
+        private void GenerateVertexIndices(OctreeNode node, List<MeshVertex> vertexBuffer) {
+            if (node == null) {
+                return;
+            }
+            if (node.Type != Node_Leaf) {
+                for (int i = 0; i < 8; i++) {
+                    GenerateVertexIndices(node.children[i], vertexBuffer);
+                }
+            }
+            if (node.Type != Node_Internal) {
+                node.index = vertexBuffer.size();
+                OctreeDrawInfo drawInfo = ((PointerBasedOctreeNode) node).drawInfo;
+                vertexBuffer.add(new MeshVertex(drawInfo.position, drawInfo.averageNormal, drawInfo.color));
+            }
+        }
+
+        void processNodesToMesh(List<OctreeNode> seamNodes, Vec3i currNodeMin, int rootNodeSize, boolean isSeam, MeshBuffer buffer) {
+            OctreeNode root = constructTreeUpwards(seamNodes, currNodeMin, rootNodeSize);
+            List<MeshVertex> vertices = new ArrayList<>();
+            List<Integer> indices = new ArrayList<>();
+            GenerateVertexIndices(root, vertices);
+            ContourCellProc(root, indices, isSeam, rootNodeSize);
+
+            buffer.setVertices(BufferUtil.createDcFlippedBufferAOS(vertices));
+            buffer.setIndicates(BufferUtil.createFlippedBuffer(indices));
+            buffer.setNumVertices(vertices.size());
+            buffer.setNumIndicates(indices.size());
+        }
+    }
+}
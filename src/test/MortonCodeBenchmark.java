@@ -0,0 +1,115 @@
+package test;
+
+import core.math.Vec3i;
+import dc.impl.MeshGenerationContext;
+
+/*
+ Checks the bit-spread morton encode/decode of MeshGenerationContext against the previous bit-by-bit loops
+ and prints the time per call of both versions.
+ */
+public class MortonCodeBenchmark {
+    static MeshGenerationContext meshGen = new MeshGenerationContext(32);
+    static final int ITERATIONS = 20;
+
+    public static void main(String[] args) {
+        int size = meshGen.getVoxelsPerChunk() + 1;
+        int count = size * size * size;
+        int[] codes = new int[count];
+        int i = 0;
+        for (int z = 0; z < size; z++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    codes[i++] = loopCodeForPosition(new Vec3i(x, y, z));
+                }
+            }
+        }
+
+        boolean equalsFlag = true;
+        for (i = 0; i < count; i++) {
+            Vec3i expected = loopPositionForCode(codes[i]);
+            Vec3i pos = meshGen.positionForCode(codes[i]);
+            if (!expected.equals(pos) || meshGen.codeForPosition(pos) != codes[i]) {
+                System.out.println("morton code not equals in index " + i);
+                equalsFlag = false;
+            }
+        }
+        // shorter codes of parent nodes decode to the min corner of the node
+        for (i = 0; i < count; i++) {
+            for (int code = codes[i]; code > 0; code >>= 3) {
+                if (!loopPositionForCode(code).equals(meshGen.positionForCode(code))) {
+                    System.out.println("parent code not equals " + code);
+                    equalsFlag = false;
+                }
+            }
+        }
+        if (equalsFlag) {
+            System.out.println("morton codes are equals");
+        }
+
+        long sink = 0;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            for (int it = 0; it < ITERATIONS; it++) {
+                for (i = 0; i < count; i++) {
+                    Vec3i p = loopPositionForCode(codes[i]);
+                    sink += loopCodeForPosition(p);
+                }
+            }
+            long loopTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int it = 0; it < ITERATIONS; it++) {
+                for (i = 0; i < count; i++) {
+                    Vec3i p = meshGen.positionForCode(codes[i]);
+                    sink += meshGen.codeForPosition(p.x, p.y, p.z);
+                }
+            }
+            long spreadTime = System.nanoTime() - start;
+
+            long calls = (long) ITERATIONS * count;
+            System.out.println(String.format("run %d: bit loop %.2f ns, bit spread %.2f ns per decode+encode, speedup %.1fx",
+                    run, (double) loopTime / calls, (double) spreadTime / calls, (double) loopTime / spreadTime));
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    // MeshGenerationContext.positionForCode before the bit-spread version
+    private static Vec3i loopPositionForCode(int code) {
+        int nodeDepth = loopGetMsb(code)/3;
+        Vec3i pos = new Vec3i();
+        for (int i = meshGen.MAX_OCTREE_DEPTH - nodeDepth; i < meshGen.MAX_OCTREE_DEPTH; i++) {
+            int c = code & 7;
+            code >>= 3;
+
+            int x = (c >> 2) & 1;
+            int y = (c >> 1) & 1;
+            int z = (c >> 0) & 1;
+
+            pos.x |= (x << i);
+            pos.y |= (y << i);
+            pos.z |= (z << i);
+        }
+        return pos;
+    }
+
+    private static int loopCodeForPosition(Vec3i p) {
+        int code = 1;
+        for (int depth = meshGen.MAX_OCTREE_DEPTH - 1; depth >= 0; depth--) {
+            int x = (p.x >> depth) & 1;
+            int y = (p.y >> depth) & 1;
+            int z = (p.z >> depth) & 1;
+            int c = (x << 2) | (y << 1) | z;
+            code = (code << 3) | c;
+        }
+        return code;
+    }
+
+    private static int loopGetMsb(int value) {
+        for (int i = 0, maxBits = 31, test = ~(~0 >>> 1); 0 != test; ++i, test >>>= 1) {
+            if (test == (value & test)) {
+                return (maxBits - i);
+            }
+        }
+        return -1;
+    }
+}
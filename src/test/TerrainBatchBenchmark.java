@@ -0,0 +1,68 @@
+package test;
+
+import core.math.Vec2f;
+import dc.utils.SimplexNoise;
+
+/*
+ Checks the batch SimplexNoise.Terrain against the scalar version and prints the time per heightmap texel of both.
+ */
+public class TerrainBatchBenchmark {
+    static final int ROW_SIZE = 256;
+    static final int ROWS = 256;
+
+    public static void main(String[] args) {
+        float[] xs = new float[ROW_SIZE];
+        float[] zs = new float[ROW_SIZE];
+        float[] batch = new float[ROW_SIZE];
+
+        boolean equalsFlag = true;
+        for (int z = 0; z < ROWS; z++) {
+            fillRow(z, xs, zs);
+            SimplexNoise.Terrain(xs, zs, ROW_SIZE, batch);
+            for (int x = 0; x < ROW_SIZE; x++) {
+                float scalar = SimplexNoise.Terrain(new Vec2f(xs[x], zs[x]));
+                if (Float.floatToRawIntBits(scalar) != Float.floatToRawIntBits(batch[x])) {
+                    System.out.println("terrain not equals at " + xs[x] + ", " + zs[x] + ": " + scalar + " " + batch[x]);
+                    equalsFlag = false;
+                }
+            }
+        }
+        if (equalsFlag) {
+            System.out.println("terrain heights are equals");
+        }
+
+        double sink = 0;
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            for (int z = 0; z < ROWS; z++) {
+                fillRow(z, xs, zs);
+                for (int x = 0; x < ROW_SIZE; x++) {
+                    sink += SimplexNoise.Terrain(new Vec2f(xs[x], zs[x]));
+                }
+            }
+            long scalarTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int z = 0; z < ROWS; z++) {
+                fillRow(z, xs, zs);
+                SimplexNoise.Terrain(xs, zs, ROW_SIZE, batch);
+                for (int x = 0; x < ROW_SIZE; x++) {
+                    sink += batch[x];
+                }
+            }
+            long batchTime = System.nanoTime() - start;
+
+            long texels = (long) ROWS * ROW_SIZE;
+            System.out.println(String.format("run %d: scalar %.1f ns, batch %.1f ns per texel, speedup %.1fx",
+                    run, (double) scalarTime / texels, (double) batchTime / texels, (double) scalarTime / batchTime));
+        }
+        System.out.println("checksum " + sink);
+    }
+
+    private static void fillRow(int z, float[] xs, float[] zs) {
+        for (int x = 0; x < ROW_SIZE; x++) {
+            xs[x] = x - 2048;
+            zs[x] = z - 2048;
+        }
+    }
+}